@@ -0,0 +1,144 @@
+package com.google.android.exoplayer2.managerdemo;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.offline.ActionFile;
+import com.google.android.exoplayer2.offline.DownloadAction;
+import com.google.android.exoplayer2.util.Log;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * An append-only journal of {@link DownloadAction}s, keyed by uri.
+ *
+ * <p>Each change appends one record holding just that change, so writing costs the same however
+ * many actions are tracked. Records are stored in a {@link RecordJournal}, which drops incomplete
+ * or corrupt records on load. {@link #compact(Collection)} rewrites the journal as one record per
+ * live action.
+ *
+ * <p>A journal that doesn't exist yet, or that was written with an unsupported version, is started
+ * over from a legacy {@link ActionFile}, if there is one. Not thread safe, all calls must be made
+ * on the same thread.
+ */
+/* package */ final class ActionJournal {
+
+  private static final String TAG = "ActionJournal";
+
+  private static final int VERSION = 1;
+  private static final int RECORD_PUT = 0;
+  private static final int RECORD_REMOVE = 1;
+
+  private final RecordJournal journal;
+  @Nullable private final File legacyActionFile;
+
+  /**
+   * @param journalFile The file the journal is stored in.
+   * @param legacyActionFile An {@link ActionFile} to import if the journal doesn't exist yet.
+   */
+  public ActionJournal(File journalFile, @Nullable File legacyActionFile) {
+    this.legacyActionFile = legacyActionFile;
+    journal = new RecordJournal(journalFile, VERSION);
+  }
+
+  /** Number of records in the journal, including the ones that have since been superseded. */
+  public int getRecordCount() {
+    return journal.getRecordCount();
+  }
+
+  /**
+   * Replays the journal and returns the live actions by uri, in the order they were first added.
+   */
+  public LinkedHashMap<Uri, DownloadAction> load(DownloadAction.Deserializer[] deserializers)
+      throws IOException {
+    LinkedHashMap<Uri, DownloadAction> actions = new LinkedHashMap<>();
+    int result = journal.replay(record -> applyRecord(record, deserializers, actions));
+    if (result == RecordJournal.RESULT_UNSUPPORTED_VERSION) {
+      // Appending to a journal that can't be read would lose every later change too.
+      Log.w(TAG, "Unsupported action journal version, starting over");
+      importLegacyActionFile(deserializers, actions);
+    } else if (result == RecordJournal.RESULT_MISSING) {
+      importLegacyActionFile(deserializers, actions);
+    } else if (journal.getDroppedByteCount() > 0) {
+      Log.w(TAG, "Dropped " + journal.getDroppedByteCount()
+          + " bytes of incomplete or unreadable records");
+    }
+    return actions;
+  }
+
+  /** Appends a record that adds or replaces the action for {@code action.uri}. */
+  public void put(DownloadAction action) throws IOException {
+    journal.append(buildPutRecord(action));
+  }
+
+  /** Appends a record that removes the action for {@code uri}. */
+  public void remove(Uri uri) throws IOException {
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream recordOutput = new DataOutputStream(record);
+    recordOutput.write(RECORD_REMOVE);
+    recordOutput.writeUTF(uri.toString());
+    recordOutput.flush();
+    journal.append(record.toByteArray());
+  }
+
+  /** Atomically replaces the journal with one record per action in {@code actions}. */
+  public void compact(Collection<DownloadAction> actions) throws IOException {
+    List<byte[]> records = new ArrayList<>(actions.size());
+    for (DownloadAction action : actions) {
+      records.add(buildPutRecord(action));
+    }
+    journal.rewrite(records);
+  }
+
+  public void close() {
+    journal.close();
+  }
+
+  // Internal methods.
+
+  private void importLegacyActionFile(
+      DownloadAction.Deserializer[] deserializers, LinkedHashMap<Uri, DownloadAction> actions)
+      throws IOException {
+    actions.clear();
+    if (legacyActionFile != null && legacyActionFile.exists()) {
+      for (DownloadAction action : new ActionFile(legacyActionFile).load(deserializers)) {
+        actions.put(action.uri, action);
+      }
+    }
+    compact(actions.values());
+    if (legacyActionFile != null && legacyActionFile.exists() && !legacyActionFile.delete()) {
+      Log.w(TAG, "Failed to delete imported action file " + legacyActionFile);
+    }
+  }
+
+  private static byte[] buildPutRecord(DownloadAction action) throws IOException {
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    record.write(RECORD_PUT);
+    DownloadAction.serializeToStream(action, record);
+    return record.toByteArray();
+  }
+
+  private static void applyRecord(
+      byte[] record,
+      DownloadAction.Deserializer[] deserializers,
+      LinkedHashMap<Uri, DownloadAction> actions)
+      throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+    int type = input.read();
+    if (type == RECORD_PUT) {
+      DownloadAction action = DownloadAction.deserializeFromStream(deserializers, input);
+      actions.put(action.uri, action);
+    } else if (type == RECORD_REMOVE) {
+      actions.remove(Uri.parse(input.readUTF()));
+    } else {
+      throw new IOException("Unknown action journal record type: " + type);
+    }
+  }
+}
@@ -0,0 +1,305 @@
+package com.google.android.exoplayer2.managerdemo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.offline.DownloadManager;
+import com.google.android.exoplayer2.offline.DownloadManager.TaskState;
+import com.google.android.exoplayer2.util.Log;
+import com.google.android.exoplayer2.util.Util;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Measures the throughput and failure rate of download tasks and derives how many tasks should run
+ * in parallel.
+ *
+ * <p>Each finished task is reported with its size, duration and throughput. Throughput is also
+ * averaged per number of tasks that were running at the time, and the concurrency is moved towards
+ * the level with the highest combined throughput: up while an extra task adds throughput, down
+ * when it only splits the same bandwidth, and halved while tasks keep failing. {@link
+ * DownloadManager} can't change its maximum number of simultaneous downloads once created, so the
+ * recommendation is persisted and used when the next one is created.
+ *
+ * <p>Throughput and concurrency are kept per network type, as read when the scheduler is created,
+ * and tasks that finish on another network type aren't sampled.
+ */
+public class AdaptiveDownloadScheduler implements DownloadManager.Listener {
+
+  /** Receives a report for every download task that completed or failed. */
+  public interface Listener {
+
+    void onTaskReport(TaskReport report);
+  }
+
+  /** What a single download task achieved. */
+  public static final class TaskReport {
+
+    public final int taskId;
+    public final boolean failed;
+    public final long downloadedBytes;
+    public final long durationMs;
+    /** Number of tasks that were running, including this one, when it finished. */
+    public final int concurrency;
+
+    /* package */ TaskReport(
+        int taskId, boolean failed, long downloadedBytes, long durationMs, int concurrency) {
+      this.taskId = taskId;
+      this.failed = failed;
+      this.downloadedBytes = downloadedBytes;
+      this.durationMs = durationMs;
+      this.concurrency = concurrency;
+    }
+
+    /** Throughput in bits per second, or 0 if nothing was measured. */
+    public long getThroughputBps() {
+      return durationMs > 0 ? downloadedBytes * 8000 / durationMs : 0;
+    }
+
+    @Override
+    public String toString() {
+      return "task " + taskId + (failed ? " failed" : " completed") + ", " + downloadedBytes
+          + " bytes in " + durationMs + "ms (" + getThroughputBps() / 1000 + " kbps) with "
+          + concurrency + " running";
+    }
+  }
+
+  public static final int DEFAULT_MIN_CONCURRENCY = 1;
+  public static final int DEFAULT_MAX_CONCURRENCY = 6;
+  public static final int DEFAULT_INITIAL_CONCURRENCY = 2;
+
+  private static final String TAG = "AdaptiveDownloadSched";
+  private static final String PREFERENCES_NAME = "download_scheduler";
+  private static final String KEY_CONCURRENCY_PREFIX = "concurrency_";
+  private static final String KEY_THROUGHPUT_PREFIX = "throughput_";
+  /** Weight of a new sample in the moving averages. */
+  private static final float SAMPLE_WEIGHT = 0.3f;
+  /** Failure rate above which concurrency is halved. */
+  private static final float MAX_FAILURE_RATE = 0.25f;
+  /** An extra task has to add this much combined throughput to be worth keeping. */
+  private static final float MIN_THROUGHPUT_GAIN = 1.1f;
+  /** Lowest average throughput kept, so that a tried concurrency never looks untried. */
+  private static final float MIN_THROUGHPUT_BPS = 1;
+  /** Tasks shorter than this are too dominated by setup to say much about throughput. */
+  private static final long MIN_SAMPLE_DURATION_MS = 2000;
+
+  private final Context context;
+  private final SharedPreferences preferences;
+  private final @C.NetworkType int networkType;
+  private final int minConcurrency;
+  private final int maxConcurrency;
+  private final CopyOnWriteArraySet<Listener> listeners;
+  private final SparseArray<Long> taskStartTimesMs;
+  /**
+   * Average per task throughput in bps, indexed by concurrency and kept across sessions. 0 means no
+   * samples.
+   */
+  private final float[] taskThroughputBps;
+
+  /** The concurrency the current download manager was created with. */
+  private final int sessionConcurrency;
+  private int concurrency;
+  private float failureRate;
+  private int runningTaskCount;
+
+  public AdaptiveDownloadScheduler(Context context) {
+    this(context, DEFAULT_MIN_CONCURRENCY, DEFAULT_MAX_CONCURRENCY);
+  }
+
+  public AdaptiveDownloadScheduler(Context context, int minConcurrency, int maxConcurrency) {
+    this.minConcurrency = minConcurrency;
+    this.maxConcurrency = maxConcurrency;
+    this.context = context.getApplicationContext();
+    preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    networkType = Util.getNetworkType(context);
+    listeners = new CopyOnWriteArraySet<>();
+    taskStartTimesMs = new SparseArray<>();
+    taskThroughputBps = new float[maxConcurrency + 1];
+    for (int i = 1; i <= maxConcurrency; i++) {
+      taskThroughputBps[i] = preferences.getFloat(getThroughputKey(i), 0);
+    }
+    sessionConcurrency =
+        clamp(
+            preferences.getInt(KEY_CONCURRENCY_PREFIX + networkType, DEFAULT_INITIAL_CONCURRENCY),
+            minConcurrency,
+            maxConcurrency);
+    concurrency = sessionConcurrency;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Returns the number of downloads that should run in parallel. This is what the next download
+   * manager should be created with.
+   */
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  /** Returns the moving average of the fraction of tasks that failed. */
+  public float getFailureRate() {
+    return failureRate;
+  }
+
+  // DownloadManager.Listener
+
+  @Override
+  public void onInitialized(DownloadManager downloadManager) {
+    // Do nothing.
+  }
+
+  @Override
+  public void onTaskStateChanged(DownloadManager downloadManager, TaskState taskState) {
+    if (taskState.action.isRemoveAction) {
+      return;
+    }
+    if (taskState.state == TaskState.STATE_STARTED) {
+      if (taskStartTimesMs.get(taskState.taskId) == null) {
+        taskStartTimesMs.put(taskState.taskId, SystemClock.elapsedRealtime());
+        runningTaskCount++;
+      }
+      return;
+    }
+    Long startTimeMs = taskStartTimesMs.get(taskState.taskId);
+    if (startTimeMs == null) {
+      return;
+    }
+    taskStartTimesMs.remove(taskState.taskId);
+    int taskConcurrency = runningTaskCount;
+    runningTaskCount--;
+    if (taskState.state == TaskState.STATE_COMPLETED
+        || taskState.state == TaskState.STATE_FAILED) {
+      onTaskFinished(
+          new TaskReport(
+              taskState.taskId,
+              taskState.state == TaskState.STATE_FAILED,
+              Math.max(0, taskState.downloadedBytes),
+              SystemClock.elapsedRealtime() - startTimeMs,
+              taskConcurrency));
+    }
+  }
+
+  @Override
+  public void onIdle(DownloadManager downloadManager) {
+    // Do nothing.
+  }
+
+  // Internal methods
+
+  private void onTaskFinished(TaskReport report) {
+    for (Listener listener : listeners) {
+      listener.onTaskReport(report);
+    }
+    failureRate = updateFailureRate(failureRate, report);
+    if (Util.getNetworkType(context) == networkType
+        && addThroughputSample(taskThroughputBps, report, maxConcurrency)) {
+      preferences
+          .edit()
+          .putFloat(getThroughputKey(report.concurrency), taskThroughputBps[report.concurrency])
+          .apply();
+    }
+    updateConcurrency();
+  }
+
+  private void updateConcurrency() {
+    int newConcurrency =
+        computeConcurrency(
+            sessionConcurrency, failureRate, taskThroughputBps, minConcurrency, maxConcurrency);
+    if (newConcurrency != concurrency) {
+      Log.d(TAG, "Concurrency " + concurrency + " -> " + newConcurrency + ", failure rate "
+          + failureRate);
+      concurrency = newConcurrency;
+      preferences.edit().putInt(KEY_CONCURRENCY_PREFIX + networkType, concurrency).apply();
+    }
+  }
+
+  private String getThroughputKey(int concurrency) {
+    return KEY_THROUGHPUT_PREFIX + networkType + "_" + concurrency;
+  }
+
+  /** Returns {@code failureRate}, updated with {@code report}. */
+  /* package */ static float updateFailureRate(float failureRate, TaskReport report) {
+    return failureRate + SAMPLE_WEIGHT * ((report.failed ? 1f : 0f) - failureRate);
+  }
+
+  /**
+   * Adds the throughput of {@code report} to the average for its concurrency, if it says something
+   * about throughput. Returns whether the average changed.
+   *
+   * <p>A failed task counts as one that downloaded nothing, so that a concurrency the server
+   * answers with failures isn't retried for the throughput of the tasks that got through.
+   */
+  /* package */ static boolean addThroughputSample(
+      float[] taskThroughputBps, TaskReport report, int maxConcurrency) {
+    if (report.concurrency > maxConcurrency
+        || (!report.failed && report.durationMs < MIN_SAMPLE_DURATION_MS)) {
+      return false;
+    }
+    float sample = report.failed ? 0 : report.getThroughputBps();
+    float average = taskThroughputBps[report.concurrency];
+    taskThroughputBps[report.concurrency] =
+        average == 0
+            // Keep a tried concurrency apart from an untried one, which has an average of 0.
+            ? Math.max(sample, MIN_THROUGHPUT_BPS)
+            : Math.max(average + SAMPLE_WEIGHT * (sample - average), MIN_THROUGHPUT_BPS);
+    return true;
+  }
+
+  /**
+   * Returns the concurrency to use next. Moves at most one step away from {@code base}, the
+   * concurrency this session runs with, so that every step is measured before the next one is
+   * taken.
+   *
+   * @param base The concurrency this session runs with.
+   * @param failureRate The moving average of the fraction of tasks that failed.
+   * @param taskThroughputBps Average per task throughput in bps, indexed by concurrency up to
+   *     {@code maxConcurrency}. 0 means no samples.
+   * @param minConcurrency The minimum concurrency.
+   * @param maxConcurrency The maximum concurrency.
+   */
+  /* package */ static int computeConcurrency(
+      int base,
+      float failureRate,
+      float[] taskThroughputBps,
+      int minConcurrency,
+      int maxConcurrency) {
+    int newConcurrency = base;
+    if (failureRate > MAX_FAILURE_RATE) {
+      // The link, or the server, is struggling. Back off quickly.
+      newConcurrency = base / 2;
+    } else if (taskThroughputBps[base] > 0) {
+      float throughput = getCombinedThroughputBps(taskThroughputBps, base, maxConcurrency);
+      float higherThroughput =
+          getCombinedThroughputBps(taskThroughputBps, base + 1, maxConcurrency);
+      float lowerThroughput = getCombinedThroughputBps(taskThroughputBps, base - 1, maxConcurrency);
+      if (lowerThroughput > 0 && throughput < lowerThroughput * MIN_THROUGHPUT_GAIN) {
+        // The last extra task only split the same bandwidth.
+        newConcurrency = base - 1;
+      } else if (higherThroughput == 0 || higherThroughput >= throughput * MIN_THROUGHPUT_GAIN) {
+        // Untried, or known to be better.
+        newConcurrency = base + 1;
+      } else if (lowerThroughput == 0) {
+        // Going higher doesn't pay off, so check whether the last step up did.
+        newConcurrency = base - 1;
+      }
+    }
+    return clamp(newConcurrency, minConcurrency, maxConcurrency);
+  }
+
+  private static float getCombinedThroughputBps(
+      float[] taskThroughputBps, int concurrency, int maxConcurrency) {
+    return concurrency < 1 || concurrency > maxConcurrency
+        ? 0 : taskThroughputBps[concurrency] * concurrency;
+  }
+
+  private static int clamp(int concurrency, int minConcurrency, int maxConcurrency) {
+    return Math.max(minConcurrency, Math.min(maxConcurrency, concurrency));
+  }
+}
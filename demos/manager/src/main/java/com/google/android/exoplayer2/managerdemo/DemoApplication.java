@@ -16,9 +16,12 @@
 package com.google.android.exoplayer2.managerdemo;
 
 import android.app.Application;
+import com.dfbarone.android.exoplayer2.manager.mediacodec.DecoderCapabilityCache;
+import com.dfbarone.android.exoplayer2.manager.upstream.StreamingCacheDataSourceFactory;
 import com.google.android.exoplayer2.offline.DownloadManager;
 import com.google.android.exoplayer2.offline.DownloaderConstructorHelper;
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DummyDataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.google.android.exoplayer2.upstream.FileDataSourceFactory;
@@ -27,8 +30,10 @@ import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSourceFactory;
+import com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor;
 import com.google.android.exoplayer2.upstream.cache.NoOpCacheEvictor;
 import com.google.android.exoplayer2.upstream.cache.SimpleCache;
+import com.google.android.exoplayer2.util.Log;
 import com.google.android.exoplayer2.util.Util;
 import java.io.File;
 
@@ -37,29 +42,79 @@ import java.io.File;
  */
 public class DemoApplication extends Application {
 
+  private static final String TAG = "DemoApplication";
+
   private static final String DOWNLOAD_ACTION_FILE = "actions";
   private static final String DOWNLOAD_TRACKER_ACTION_FILE = "tracked_actions";
+  private static final String DOWNLOAD_TRACKER_JOURNAL_FILE = "tracked_actions_journal";
   private static final String DOWNLOAD_CONTENT_DIRECTORY = "downloads";
-  private static final int MAX_SIMULTANEOUS_DOWNLOADS = 2;
+  private static final String STREAMING_CACHE_DIRECTORY = "streaming";
+  private static final long STREAMING_CACHE_MAX_BYTES = 100 * 1024 * 1024;
 
   protected String userAgent;
 
   private File downloadDirectory;
   private Cache downloadCache;
+  private StreamingCacheDataSourceFactory streamingCacheDataSourceFactory;
   private DownloadManager downloadManager;
   private DownloadTracker downloadTracker;
+  private AdaptiveDownloadScheduler downloadScheduler;
 
   @Override
   public void onCreate() {
     super.onCreate();
     userAgent = Util.getUserAgent(this, "ExoPlayerDemo");
+    DecoderCapabilityCache.getInstance(this).warmUp();
   }
 
-  /** Returns a {@link DataSource.Factory}. */
+  /**
+   * Returns a {@link DataSource.Factory}. Reads are served from the download cache first, then
+   * from the streaming cache, and only then from the network.
+   */
   public DataSource.Factory buildDataSourceFactory() {
-    DefaultDataSourceFactory upstreamFactory =
-        new DefaultDataSourceFactory(this, buildHttpDataSourceFactory());
-    return buildReadOnlyCacheDataSource(upstreamFactory, getDownloadCache());
+    return buildReadOnlyCacheDataSource(getStreamingCacheDataSourceFactory(), getDownloadCache());
+  }
+
+  /**
+   * Returns a {@link DataSource.Factory} that reads from the download cache only, for playing
+   * downloaded content without touching the network.
+   */
+  public DataSource.Factory buildDownloadCacheOnlyDataSourceFactory() {
+    return buildReadOnlyCacheDataSource(DummyDataSource.FACTORY, getDownloadCache());
+  }
+
+  /**
+   * Returns a {@link DataSource.Factory} that serves reads from the download cache and the
+   * streaming cache only. Anything that isn't cached fails instead of going to the network.
+   */
+  public DataSource.Factory buildCacheOnlyDataSourceFactory() {
+    DataSource.Factory streamingCacheOnly = buildReadOnlyCacheDataSource(
+        DummyDataSource.FACTORY, getStreamingCacheDataSourceFactory().getCache());
+    return buildReadOnlyCacheDataSource(streamingCacheOnly, getDownloadCache());
+  }
+
+  /**
+   * Returns a {@link DataSource.Factory} for manifests. Reads are served from the download cache
+   * first, then from the network. The streaming cache is skipped, since it would keep serving a
+   * live manifest as it was when first loaded.
+   */
+  public DataSource.Factory buildManifestDataSourceFactory() {
+    return buildReadOnlyCacheDataSource(
+        new DefaultDataSourceFactory(this, buildHttpDataSourceFactory()), getDownloadCache());
+  }
+
+  /** Returns the write-through streaming cache factory, which also reports cache statistics. */
+  public synchronized StreamingCacheDataSourceFactory getStreamingCacheDataSourceFactory() {
+    if (streamingCacheDataSourceFactory == null) {
+      Cache streamingCache =
+          new SimpleCache(
+              new File(getCacheDir(), STREAMING_CACHE_DIRECTORY),
+              new LeastRecentlyUsedCacheEvictor(STREAMING_CACHE_MAX_BYTES));
+      streamingCacheDataSourceFactory =
+          new StreamingCacheDataSourceFactory(
+              streamingCache, new DefaultDataSourceFactory(this, buildHttpDataSourceFactory()));
+    }
+    return streamingCacheDataSourceFactory;
   }
 
   /** Returns a {@link HttpDataSource.Factory}. */
@@ -77,6 +132,11 @@ public class DemoApplication extends Application {
     return downloadManager;
   }
 
+  public AdaptiveDownloadScheduler getDownloadScheduler() {
+    initDownloadManager();
+    return downloadScheduler;
+  }
+
   public DownloadTracker getDownloadTracker() {
     initDownloadManager();
     return downloadTracker;
@@ -86,18 +146,24 @@ public class DemoApplication extends Application {
     if (downloadManager == null) {
       DownloaderConstructorHelper downloaderConstructorHelper =
           new DownloaderConstructorHelper(getDownloadCache(), buildHttpDataSourceFactory());
+      // The download manager can't change its concurrency later, so it starts with what the
+      // scheduler learned from earlier downloads.
+      downloadScheduler = new AdaptiveDownloadScheduler(this);
+      downloadScheduler.addListener(report -> Log.d(TAG, "Download " + report));
       downloadManager =
           new DownloadManager(
               downloaderConstructorHelper,
-              MAX_SIMULTANEOUS_DOWNLOADS,
+              downloadScheduler.getConcurrency(),
               DownloadManager.DEFAULT_MIN_RETRY_COUNT,
               new File(getDownloadDirectory(), DOWNLOAD_ACTION_FILE));
       downloadTracker =
           new DownloadTracker(
               /* context= */ this,
               buildDataSourceFactory(),
+              new File(getDownloadDirectory(), DOWNLOAD_TRACKER_JOURNAL_FILE),
               new File(getDownloadDirectory(), DOWNLOAD_TRACKER_ACTION_FILE));
       downloadManager.addListener(downloadTracker);
+      downloadManager.addListener(downloadScheduler);
     }
   }
 
@@ -120,7 +186,7 @@ public class DemoApplication extends Application {
   }
 
   private static CacheDataSourceFactory buildReadOnlyCacheDataSource(
-      DefaultDataSourceFactory upstreamFactory, Cache cache) {
+      DataSource.Factory upstreamFactory, Cache cache) {
     return new CacheDataSourceFactory(
         cache,
         upstreamFactory,
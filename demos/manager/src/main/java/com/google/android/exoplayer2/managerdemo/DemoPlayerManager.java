@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Pair;
@@ -13,26 +14,32 @@ import android.widget.FrameLayout;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
-import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
-import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
-import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
-import com.google.android.exoplayer2.drm.HttpMediaDrmCallback;
-import com.google.android.exoplayer2.drm.UnsupportedDrmException;
 import com.dfbarone.android.exoplayer2.manager.util.ContextHelper;
 import com.dfbarone.android.exoplayer2.manager.SimpleExoPlayerManager;
 import com.google.android.exoplayer2.mediacodec.MediaCodecRenderer;
 import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.offline.FilteringManifestParser;
+import com.google.android.exoplayer2.offline.StreamKey;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
 import com.google.android.exoplayer2.source.ads.AdsLoader;
 import com.google.android.exoplayer2.source.ads.AdsMediaSource;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
-import com.google.android.exoplayer2.upstream.TransferListener;
 import com.google.android.exoplayer2.util.ErrorMessageProvider;
 import com.google.android.exoplayer2.util.Util;
 
 import java.lang.reflect.Constructor;
-import java.util.UUID;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class DemoPlayerManager extends SimpleExoPlayerManager {
 
@@ -41,6 +48,8 @@ public class DemoPlayerManager extends SimpleExoPlayerManager {
   public static final String SPHERICAL_STEREO_MODE_TOP_BOTTOM = "top_bottom";
   public static final String SPHERICAL_STEREO_MODE_LEFT_RIGHT = "left_right";
 
+  private static final long DOWNLOAD_TRACKER_LOAD_TIMEOUT_MS = 2000;
+
   public DemoPlayerManager(Context context, View root) {
     super(context, root);
   }
@@ -67,39 +76,80 @@ public class DemoPlayerManager extends SimpleExoPlayerManager {
   }
 
   /**
-   * Returns a {@link HttpDataSource.Factory}.
+   * On the build executor, first waits a bounded time for the download tracker to load, so that
+   * downloaded content isn't streamed just because its download isn't known yet. Media sources
+   * built later, such as the lazily built items of a playlist, don't wait.
    */
   @Override
-  public HttpDataSource.Factory buildHttpDataSourceFactory() {
-    return ((DemoApplication) ContextHelper.getApplication(getContext())).buildHttpDataSourceFactory();
+  protected PlayerComponents buildPlayerComponents(Intent intent, int startWindow) {
+    if (Looper.myLooper() != Looper.getMainLooper()) {
+      awaitLoaded(((DemoApplication) ContextHelper.getApplication(getContext()))
+          .getDownloadTracker());
+    }
+    return super.buildPlayerComponents(intent, startWindow);
   }
 
+  /**
+   * Builds downloaded content from the download cache, restricted to the downloaded streams so
+   * that adaptive selection can't pick a representation that isn't on disk. Completed downloads
+   * are read without any network request. Everything else is built by the superclass.
+   */
   @Override
-  public DefaultDrmSessionManager<FrameworkMediaCrypto> buildDrmSessionManagerV18(
-      UUID uuid, String licenseUrl, String[] keyRequestPropertiesArray, boolean multiSession)
-      throws UnsupportedDrmException {
-    HttpDataSource.Factory licenseDataSourceFactory =
-        ((DemoApplication) ContextHelper.getApplication(getContext())).buildHttpDataSourceFactory();
-    HttpMediaDrmCallback drmCallback =
-        new HttpMediaDrmCallback(licenseUrl, licenseDataSourceFactory);
-    if (keyRequestPropertiesArray != null) {
-      for (int i = 0; i < keyRequestPropertiesArray.length - 1; i += 2) {
-        drmCallback.setKeyRequestProperty(keyRequestPropertiesArray[i],
-            keyRequestPropertiesArray[i + 1]);
+  public MediaSource buildMediaSource(Uri uri, @Nullable String overrideExtension) {
+    DemoApplication application = (DemoApplication) ContextHelper.getApplication(getContext());
+    DownloadTracker downloadTracker = application.getDownloadTracker();
+    if (!downloadTracker.isDownloaded(uri)) {
+      return super.buildMediaSource(uri, overrideExtension);
+    }
+    List<StreamKey> streamKeys = downloadTracker.getOfflineStreamKeys(uri);
+    // A download that is still running reads the missing parts from the network.
+    DataSource.Factory dataSourceFactory = downloadTracker.isDownloadInProgress(uri)
+        ? application.buildDataSourceFactory()
+        : application.buildDownloadCacheOnlyDataSourceFactory();
+    @C.ContentType int type = Util.inferContentType(uri, overrideExtension);
+    switch (type) {
+      case C.TYPE_DASH:
+        return new DashMediaSource.Factory(dataSourceFactory)
+            .setManifestParser(
+                new FilteringManifestParser<>(new DashManifestParser(), streamKeys))
+            .createMediaSource(uri);
+      case C.TYPE_SS:
+        return new SsMediaSource.Factory(dataSourceFactory)
+            .setManifestParser(
+                new FilteringManifestParser<>(new SsManifestParser(), streamKeys))
+            .createMediaSource(uri);
+      case C.TYPE_HLS:
+        return new HlsMediaSource.Factory(dataSourceFactory)
+            .setPlaylistParser(
+                new FilteringManifestParser<>(new HlsPlaylistParser(), streamKeys))
+            .createMediaSource(uri);
+      case C.TYPE_OTHER:
+        return new ExtractorMediaSource.Factory(dataSourceFactory).createMediaSource(uri);
+      default: {
+        throw new IllegalStateException("Unsupported type: " + type);
       }
     }
-    releaseMediaDrm();
-    mediaDrm = FrameworkMediaDrm.newInstance(uuid);
-    return new DefaultDrmSessionManager<>(
-        uuid, mediaDrm, drmCallback, null, multiSession);
   }
 
+  /*** Falls back to whatever is cached or downloaded when the network keeps failing. */
   @Override
-  public void releaseMediaDrm() {
-    if (mediaDrm != null) {
-      mediaDrm.release();
-      mediaDrm = null;
-    }
+  protected DataSource.Factory buildFallbackDataSourceFactory() {
+    return ((DemoApplication) ContextHelper.getApplication(getContext()))
+        .buildCacheOnlyDataSourceFactory();
+  }
+
+  @Override
+  protected DataSource.Factory buildManifestUpstreamDataSourceFactory() {
+    return ((DemoApplication) ContextHelper.getApplication(getContext()))
+        .buildManifestDataSourceFactory();
+  }
+
+  /**
+   * Returns a {@link HttpDataSource.Factory}.
+   */
+  @Override
+  public HttpDataSource.Factory buildHttpDataSourceFactory() {
+    return ((DemoApplication) ContextHelper.getApplication(getContext())).buildHttpDataSourceFactory();
   }
 
   /** Returns an ads media source, reusing the ads loader if one exists. */
@@ -156,6 +206,18 @@ public class DemoPlayerManager extends SimpleExoPlayerManager {
     return new PlayerErrorMessageProvider();
   }
 
+  private static void awaitLoaded(DownloadTracker downloadTracker) {
+    try {
+      downloadTracker
+          .getLoadedFuture()
+          .get(DOWNLOAD_TRACKER_LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      // Build from whatever the tracker knows, streaming what it doesn't, as on the main thread.
+    }
+  }
+
   private class PlayerErrorMessageProvider implements ErrorMessageProvider<ExoPlaybackException> {
 
     @Override
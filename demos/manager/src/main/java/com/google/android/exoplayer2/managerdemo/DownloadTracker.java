@@ -22,13 +22,15 @@ import android.content.DialogInterface;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.ArrayAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
 import com.google.android.exoplayer2.C;
-import com.google.android.exoplayer2.offline.ActionFile;
 import com.google.android.exoplayer2.offline.DownloadAction;
 import com.google.android.exoplayer2.offline.DownloadHelper;
 import com.google.android.exoplayer2.offline.DownloadManager;
@@ -53,14 +55,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Tracks media that has been downloaded.
  *
- * <p>Tracked downloads are persisted using an {@link ActionFile}, however in a real application
+ * <p>Tracked downloads are persisted using an {@link ActionJournal}, however in a real application
  * it's expected that state will be stored directly in the application's media database, so that it
  * can be queried efficiently together with other information about the media.
+ *
+ * <p>The journal is loaded on a background thread, see {@link #getLoadedFuture()}. Tracked state is
+ * an immutable snapshot that is replaced on every change, so lookups from any thread don't lock.
  */
 public class DownloadTracker implements DownloadManager.Listener {
 
@@ -73,30 +81,63 @@ public class DownloadTracker implements DownloadManager.Listener {
 
   private static final String TAG = "DownloadTracker";
 
+  /** The journal is compacted once it holds this many more records than there are live actions. */
+  private static final int MIN_SUPERSEDED_JOURNAL_RECORDS = 64;
+
   private final Context context;
   private final DataSource.Factory dataSourceFactory;
   private final TrackNameProvider trackNameProvider;
   private final CopyOnWriteArraySet<Listener> listeners;
-  private final HashMap<Uri, DownloadAction> trackedDownloadStates;
-  private final ActionFile actionFile;
+  private final CopyOnWriteArraySet<Uri> activeDownloads;
+  private final ActionJournal actionJournal;
   private final Handler actionFileWriteHandler;
+  private final Handler mainHandler;
+  private final FutureTask<Void> loadTask;
+
+  // Whether activeDownloads has been seeded with the tasks the download manager restored.
+  private volatile boolean taskStatesKnown;
+
+  // Guarded by this. The snapshot itself is immutable and can be read without the lock.
+  private volatile Map<Uri, DownloadAction> trackedDownloadStates;
+  private boolean loaded;
+  private final List<Pair<Uri, DownloadAction>> changesBeforeLoad;
+  private int journalRecordCount;
 
   public DownloadTracker(
       Context context,
       DataSource.Factory dataSourceFactory,
-      File actionFile,
+      File journalFile,
+      File legacyActionFile,
       DownloadAction.Deserializer... deserializers) {
     this.context = context.getApplicationContext();
     this.dataSourceFactory = dataSourceFactory;
-    this.actionFile = new ActionFile(actionFile);
+    actionJournal = new ActionJournal(journalFile, legacyActionFile);
     trackNameProvider = new DefaultTrackNameProvider(context.getResources());
     listeners = new CopyOnWriteArraySet<>();
-    trackedDownloadStates = new HashMap<>();
+    trackedDownloadStates = Collections.emptyMap();
+    changesBeforeLoad = new ArrayList<>();
+    activeDownloads = new CopyOnWriteArraySet<>();
+    mainHandler = new Handler(Looper.getMainLooper());
     HandlerThread actionFileWriteThread = new HandlerThread("DownloadTracker");
     actionFileWriteThread.start();
     actionFileWriteHandler = new Handler(actionFileWriteThread.getLooper());
-    loadTrackedActions(
-        deserializers.length > 0 ? deserializers : DownloadAction.getDefaultDeserializers());
+    DownloadAction.Deserializer[] actionDeserializers =
+        deserializers.length > 0 ? deserializers : DownloadAction.getDefaultDeserializers();
+    // Journal writes are posted to the same thread, so they are only applied after loading.
+    loadTask = new FutureTask<>(() -> loadTrackedActions(actionDeserializers), null);
+    actionFileWriteHandler.post(loadTask);
+  }
+
+  /**
+   * Returns a future that completes once the tracked downloads have been loaded. Until then, only
+   * downloads started since construction are reported as tracked.
+   */
+  public Future<Void> getLoadedFuture() {
+    return loadTask;
+  }
+
+  public boolean isLoaded() {
+    return loadTask.isDone();
   }
 
   public void addListener(Listener listener) {
@@ -107,19 +148,37 @@ public class DownloadTracker implements DownloadManager.Listener {
     listeners.remove(listener);
   }
 
+  /** Returns whether {@code uri} is tracked. Safe to call from any thread, and doesn't block. */
   public boolean isDownloaded(Uri uri) {
     return trackedDownloadStates.containsKey(uri);
   }
 
+  /**
+   * Returns whether {@code uri} is still being downloaded, so not all of it is on disk yet. Until
+   * the download manager has restored its tasks this isn't known, and true is returned.
+   */
+  public boolean isDownloadInProgress(Uri uri) {
+    return !taskStatesKnown || activeDownloads.contains(uri);
+  }
+
   @SuppressWarnings("unchecked")
   public List<StreamKey> getOfflineStreamKeys(Uri uri) {
-    if (!trackedDownloadStates.containsKey(uri)) {
+    DownloadAction action = trackedDownloadStates.get(uri);
+    if (action == null) {
       return Collections.emptyList();
     }
-    return trackedDownloadStates.get(uri).getKeys();
+    return action.getKeys();
   }
 
+  /**
+   * Removes the download of {@code uri}, or asks which tracks to download. Does nothing until the
+   * tracked downloads are loaded, since whether {@code uri} is downloaded isn't known yet.
+   */
   public void toggleDownload(Activity activity, String name, Uri uri, String extension) {
+    if (!isLoaded()) {
+      Toast.makeText(context, R.string.download_tracker_loading, Toast.LENGTH_SHORT).show();
+      return;
+    }
     if (isDownloaded(uri)) {
       DownloadAction removeAction =
           getDownloadHelper(uri, extension).getRemoveAction(Util.getUtf8Bytes(name));
@@ -135,18 +194,35 @@ public class DownloadTracker implements DownloadManager.Listener {
 
   @Override
   public void onInitialized(DownloadManager downloadManager) {
-    // Do nothing.
+    // Tasks restored from the download manager's action file don't report their state until they
+    // change it again.
+    for (TaskState taskState : downloadManager.getAllTaskStates()) {
+      if (!taskState.action.isRemoveAction
+          && (taskState.state == TaskState.STATE_QUEUED
+              || taskState.state == TaskState.STATE_STARTED)) {
+        activeDownloads.add(taskState.action.uri);
+      }
+    }
+    taskStatesKnown = true;
   }
 
   @Override
   public void onTaskStateChanged(DownloadManager downloadManager, TaskState taskState) {
     DownloadAction action = taskState.action;
     Uri uri = action.uri;
+    if (!action.isRemoveAction) {
+      if (taskState.state == TaskState.STATE_QUEUED || taskState.state == TaskState.STATE_STARTED) {
+        activeDownloads.add(uri);
+      } else {
+        activeDownloads.remove(uri);
+      }
+    }
     if ((action.isRemoveAction && taskState.state == TaskState.STATE_COMPLETED)
         || (!action.isRemoveAction && taskState.state == TaskState.STATE_FAILED)) {
       // A download has been removed, or has failed. Stop tracking it.
-      if (trackedDownloadStates.remove(uri) != null) {
-        handleTrackedDownloadStatesChanged();
+      // Until loading completes the uri may be tracked without being known yet.
+      if (!isLoaded() || trackedDownloadStates.containsKey(uri)) {
+        handleTrackedDownloadStateChanged(uri, /* action= */ null);
       }
     }
   }
@@ -158,26 +234,77 @@ public class DownloadTracker implements DownloadManager.Listener {
 
   // Internal methods
 
+  // Called on the action file write thread.
   private void loadTrackedActions(DownloadAction.Deserializer[] deserializers) {
+    Map<Uri, DownloadAction> loadedStates = new HashMap<>();
+    int recordCount = 0;
     try {
-      DownloadAction[] allActions = actionFile.load(deserializers);
-      for (DownloadAction action : allActions) {
-        trackedDownloadStates.put(action.uri, action);
-      }
+      loadedStates.putAll(actionJournal.load(deserializers));
+      recordCount = actionJournal.getRecordCount();
     } catch (IOException e) {
       Log.e(TAG, "Failed to load tracked actions", e);
     }
+    synchronized (this) {
+      // Changes made while loading were journaled after the loaded records, so they win.
+      for (Pair<Uri, DownloadAction> change : changesBeforeLoad) {
+        if (change.second != null) {
+          loadedStates.put(change.first, change.second);
+        } else {
+          loadedStates.remove(change.first);
+        }
+      }
+      changesBeforeLoad.clear();
+      journalRecordCount += recordCount;
+      trackedDownloadStates = Collections.unmodifiableMap(loadedStates);
+      loaded = true;
+    }
+    mainHandler.post(this::notifyListeners);
   }
 
-  private void handleTrackedDownloadStatesChanged() {
+  private void notifyListeners() {
     for (Listener listener : listeners) {
       listener.onDownloadsChanged();
     }
-    final DownloadAction[] actions = trackedDownloadStates.values().toArray(new DownloadAction[0]);
+  }
+
+  /**
+   * Notifies listeners and journals the change to {@code uri}, which now maps to {@code action}, or
+   * to nothing if {@code action} is null.
+   */
+  private void handleTrackedDownloadStateChanged(Uri uri, @Nullable DownloadAction action) {
+    final List<DownloadAction> compactedActions;
+    synchronized (this) {
+      Map<Uri, DownloadAction> states = new HashMap<>(trackedDownloadStates);
+      if (action != null) {
+        states.put(uri, action);
+      } else {
+        states.remove(uri);
+      }
+      trackedDownloadStates = Collections.unmodifiableMap(states);
+      journalRecordCount++;
+      if (!loaded) {
+        changesBeforeLoad.add(Pair.create(uri, action));
+        compactedActions = null;
+      } else if (journalRecordCount - states.size() >= MIN_SUPERSEDED_JOURNAL_RECORDS
+          && journalRecordCount >= 2 * states.size()) {
+        // Most records are superseded. Compaction is O(n), but runs at most once per n changes.
+        compactedActions = new ArrayList<>(states.values());
+        journalRecordCount = compactedActions.size();
+      } else {
+        compactedActions = null;
+      }
+    }
+    notifyListeners();
     actionFileWriteHandler.post(
         () -> {
           try {
-            actionFile.store(actions);
+            if (compactedActions != null) {
+              actionJournal.compact(compactedActions);
+            } else if (action != null) {
+              actionJournal.put(action);
+            } else {
+              actionJournal.remove(uri);
+            }
           } catch (IOException e) {
             Log.e(TAG, "Failed to store tracked actions", e);
           }
@@ -189,8 +316,7 @@ public class DownloadTracker implements DownloadManager.Listener {
       // This content is already being downloaded. Do nothing.
       return;
     }
-    trackedDownloadStates.put(action.uri, action);
-    handleTrackedDownloadStatesChanged();
+    handleTrackedDownloadStateChanged(action.uri, action);
     startServiceWithAction(action);
   }
 
@@ -25,6 +25,8 @@ import android.view.KeyEvent;
 import android.widget.Toast;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.dfbarone.android.exoplayer2.manager.PlayerManager;
+import com.dfbarone.android.exoplayer2.manager.analytics.StartupTimingReport;
+import com.dfbarone.android.exoplayer2.manager.upstream.StreamingCacheDataSourceFactory;
 import com.google.android.exoplayer2.util.Util;
 
 /** An activity that plays media using {@link DemoPlayerManager}. */
@@ -32,6 +34,8 @@ public class PlayerActivity extends Activity
     implements PlayerManager.EventListener {
 
   private static final String TAG = PlayerActivity.class.getSimpleName();
+  // Keep the prepared player around briefly so that returning to the activity resumes instantly.
+  private static final long RETAIN_PLAYER_MS = 30000;
 
   private DemoPlayerManager playerManager;
 
@@ -46,6 +50,8 @@ public class PlayerActivity extends Activity
     playerManager.setEventListener(this);
     playerManager.setIntent(getIntent());
     playerManager.setDebug(BuildConfig.DEBUG);
+    playerManager.setRetainPlayerMs(RETAIN_PLAYER_MS);
+    playerManager.setAsyncBuild(true);
   }
 
   @Override
@@ -73,7 +79,7 @@ public class PlayerActivity extends Activity
   public void onPause() {
     super.onPause();
     if (Util.SDK_INT <= 23) {
-      playerManager.releasePlayer();
+      playerManager.suspendPlayer();
     }
   }
 
@@ -81,14 +87,25 @@ public class PlayerActivity extends Activity
   public void onStop() {
     super.onStop();
     if (Util.SDK_INT > 23) {
-      playerManager.releasePlayer();
+      playerManager.suspendPlayer();
     }
   }
 
   @Override
   public void onDestroy() {
     super.onDestroy();
-    playerManager.releaseAdsLoader();
+    StreamingCacheDataSourceFactory streamingCache =
+        ((DemoApplication) getApplication()).getStreamingCacheDataSourceFactory();
+    Log.d(TAG, "Streaming cache hit ratio " + streamingCache.getHitRatio() + ", bytes saved "
+        + streamingCache.getCachedBytesRead());
+    playerManager.onDestroy();
+    Log.d(TAG, "Session " + playerManager.getQoeMetrics());
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    playerManager.onTrimMemory(level);
   }
 
   @Override
@@ -113,6 +130,9 @@ public class PlayerActivity extends Activity
   @Override
   public void onError(String message, Exception e) {
     Log.d(TAG, "onError() " + message);
+    if (BuildConfig.DEBUG) {
+      Log.d(TAG, "Events before error:\n" + playerManager.getLastErrorSnapshot());
+    }
     Toast.makeText(this, message, Toast.LENGTH_LONG);
 
     // Initialization error. finish.
@@ -127,4 +147,9 @@ public class PlayerActivity extends Activity
     finish();
   }
 
+  @Override
+  public void onStartupTimingReport(StartupTimingReport report) {
+    Log.d(TAG, "onStartupTimingReport() " + report);
+  }
+
 }
@@ -0,0 +1,207 @@
+package com.google.android.exoplayer2.managerdemo;
+
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.util.AtomicFile;
+import com.google.android.exoplayer2.util.Util;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of byte records, written after a version number.
+ *
+ * <p>A record is framed by its length and a CRC32 of its contents. If the process dies mid-write,
+ * {@link #replay(RecordHandler)} stops at the first incomplete or corrupt record, or the first one
+ * its handler fails on, and truncates the file there, so that later records are appended after the
+ * last valid one. {@link #rewrite(Iterable)} atomically replaces all records. Not thread safe.
+ */
+/* package */ final class RecordJournal {
+
+  /** Receives the records of a journal, in the order they were appended. */
+  public interface RecordHandler {
+
+    void onRecord(byte[] record) throws IOException;
+  }
+
+  /** The journal was replayed. See {@link #getDroppedByteCount()}. */
+  public static final int RESULT_REPLAYED = 0;
+  /** There is no journal yet. */
+  public static final int RESULT_MISSING = 1;
+  /** The journal was written with a different version. It is left as is. */
+  public static final int RESULT_UNSUPPORTED_VERSION = 2;
+
+  /** Upper bound on a record's length, so that a corrupt length isn't used to allocate memory. */
+  /* package */ static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+  private static final int VERSION_LENGTH = 4;
+  private static final int FRAME_LENGTH = 8;
+
+  private final File file;
+  private final AtomicFile atomicFile;
+  private final int version;
+
+  @Nullable private DataOutputStream output;
+  private int recordCount;
+  private long droppedByteCount;
+
+  /**
+   * @param file The file the journal is stored in.
+   * @param version The version written to, and expected in, the file.
+   */
+  public RecordJournal(File file, int version) {
+    this.file = file;
+    this.version = version;
+    atomicFile = new AtomicFile(file);
+  }
+
+  /** Number of records in the journal. */
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /** Number of bytes of incomplete or corrupt records that the last replay dropped. */
+  public long getDroppedByteCount() {
+    return droppedByteCount;
+  }
+
+  /**
+   * Passes every valid record to {@code handler}, and drops what follows the last one. A record
+   * {@code handler} throws an {@link IOException} for is dropped too, along with the rest of the
+   * journal. Returns one of the RESULT_* constants.
+   */
+  public int replay(RecordHandler handler) throws IOException {
+    recordCount = 0;
+    droppedByteCount = 0;
+    if (!file.exists() && !new File(file.getPath() + ".bak").exists()) {
+      return RESULT_MISSING;
+    }
+    long validLength = 0;
+    DataInputStream input = new DataInputStream(new BufferedInputStream(atomicFile.openRead()));
+    try {
+      if (input.readInt() != version) {
+        return RESULT_UNSUPPORTED_VERSION;
+      }
+      validLength = VERSION_LENGTH;
+      CRC32 crc = new CRC32();
+      while (true) {
+        byte[] record;
+        try {
+          int length = input.readInt();
+          int checksum = input.readInt();
+          if (length <= 0 || length > MAX_RECORD_LENGTH) {
+            break;
+          }
+          record = new byte[length];
+          input.readFully(record);
+          crc.reset();
+          crc.update(record, 0, length);
+          if ((int) crc.getValue() != checksum) {
+            break;
+          }
+        } catch (EOFException e) {
+          // The last record is incomplete, or the journal ends here.
+          break;
+        }
+        try {
+          handler.onRecord(record);
+        } catch (IOException e) {
+          // The record is intact but can't be applied. Like a corrupt one, it's dropped together
+          // with everything after it, so that later loads don't fail on it again.
+          break;
+        }
+        validLength += FRAME_LENGTH + record.length;
+        recordCount++;
+      }
+    } catch (EOFException e) {
+      // The version was not written completely. Start over.
+      validLength = 0;
+    } finally {
+      Util.closeQuietly(input);
+    }
+    droppedByteCount = file.length() - validLength;
+    if (validLength == 0) {
+      rewrite(Collections.<byte[]>emptyList());
+    } else if (droppedByteCount > 0) {
+      truncate(validLength);
+    }
+    return RESULT_REPLAYED;
+  }
+
+  /** Appends {@code record}. The journal must have been replayed or rewritten before. */
+  public void append(byte[] record) throws IOException {
+    if (output == null) {
+      output = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(file, /* append= */ true)));
+    }
+    try {
+      writeRecord(output, record);
+      output.flush();
+    } catch (IOException e) {
+      closeOutput();
+      throw e;
+    }
+    recordCount++;
+  }
+
+  /** Atomically replaces the journal, whatever its version, with {@code records}. */
+  public void rewrite(Iterable<byte[]> records) throws IOException {
+    closeOutput();
+    OutputStream outputStream = atomicFile.startWrite();
+    DataOutputStream rewrittenOutput =
+        new DataOutputStream(new BufferedOutputStream(outputStream));
+    int rewrittenRecordCount = 0;
+    try {
+      rewrittenOutput.writeInt(version);
+      for (byte[] record : records) {
+        writeRecord(rewrittenOutput, record);
+        rewrittenRecordCount++;
+      }
+      rewrittenOutput.flush();
+      atomicFile.endWrite(outputStream);
+    } catch (IOException e) {
+      Util.closeQuietly(rewrittenOutput);
+      throw e;
+    }
+    recordCount = rewrittenRecordCount;
+  }
+
+  public void close() {
+    closeOutput();
+  }
+
+  // Internal methods.
+
+  private static void writeRecord(DataOutputStream output, byte[] record) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(record, 0, record.length);
+    output.writeInt(record.length);
+    output.writeInt((int) crc.getValue());
+    output.write(record);
+  }
+
+  private void truncate(long length) throws IOException {
+    closeOutput();
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(length);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private void closeOutput() {
+    if (output != null) {
+      Util.closeQuietly(output);
+      output = null;
+    }
+  }
+}
@@ -145,6 +145,7 @@ public class SampleChooserActivity extends Activity
 
   @Override
   public void onDownloadsChanged() {
+    // Also called once the tracked downloads are loaded, which enables the download buttons.
     sampleAdapter.notifyDataSetChanged();
   }
 
@@ -471,6 +472,7 @@ public class SampleChooserActivity extends Activity
       boolean isDownloaded = canDownload && downloadTracker.isDownloaded(((UriSample) sample).uri);
       ImageButton downloadButton = view.findViewById(R.id.download_button);
       downloadButton.setTag(sample);
+      downloadButton.setEnabled(downloadTracker.isLoaded());
       downloadButton.setColorFilter(
           canDownload ? (isDownloaded ? 0xFF42A5F5 : 0xFFBDBDBD) : 0xFFEEEEEE);
       downloadButton.setImageResource(
@@ -0,0 +1,181 @@
+package com.google.android.exoplayer2.managerdemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveDownloadSchedulerTest {
+
+  private static final int MIN_CONCURRENCY = 1;
+  private static final int MAX_CONCURRENCY = 6;
+  private static final int SESSION_COUNT = 10;
+  private static final int TASKS_PER_SESSION = 10;
+  private static final long TASK_DURATION_MS = 10000;
+
+  @Test
+  public void computeConcurrency_withoutSamples_keepsBase() {
+    assertEquals(2, computeConcurrency(2, 0, new float[MAX_CONCURRENCY + 1]));
+  }
+
+  @Test
+  public void computeConcurrency_withHighFailureRate_halves() {
+    float[] taskThroughputBps = throughputs(0, 1000, 1000, 1000, 1000);
+
+    assertEquals(2, computeConcurrency(4, 0.5f, taskThroughputBps));
+    assertEquals(MIN_CONCURRENCY, computeConcurrency(1, 0.5f, taskThroughputBps));
+  }
+
+  @Test
+  public void computeConcurrency_withUntriedHigherConcurrency_stepsUp() {
+    assertEquals(3, computeConcurrency(2, 0, throughputs(0, 0, 1000)));
+  }
+
+  @Test
+  public void computeConcurrency_withBetterHigherConcurrency_stepsUp() {
+    // 3 * 800 = 2400 is at least 10% more than 2 * 1000.
+    assertEquals(3, computeConcurrency(2, 0, throughputs(0, 1500, 1000, 800)));
+  }
+
+  @Test
+  public void computeConcurrency_withoutGainEitherWay_keepsBase() {
+    // 3 * 700 = 2100 adds less than 10%, and 2 * 1000 adds more than 10% over 1500.
+    assertEquals(2, computeConcurrency(2, 0, throughputs(0, 1500, 1000, 700)));
+  }
+
+  @Test
+  public void computeConcurrency_whenLastStepOnlySplitBandwidth_stepsDown() {
+    // 2 * 1000 = 2000 adds less than 10% over 1900.
+    assertEquals(1, computeConcurrency(2, 0, throughputs(0, 1900, 1000)));
+  }
+
+  @Test
+  public void computeConcurrency_withoutGainUpAndUntriedLowerConcurrency_stepsDown() {
+    // 3 * 700 = 2100 adds less than 10% over 2 * 1000, and 1 is untried.
+    assertEquals(1, computeConcurrency(2, 0, throughputs(0, 0, 1000, 700)));
+  }
+
+  @Test
+  public void computeConcurrency_atMaxConcurrency_isClamped() {
+    float[] taskThroughputBps = throughputs(0, 0, 0, 0, 0, 0, 1000);
+
+    assertEquals(MAX_CONCURRENCY, computeConcurrency(MAX_CONCURRENCY, 0, taskThroughputBps));
+  }
+
+  @Test
+  public void addThroughputSample_failedTask_countsAsNothingDownloaded() {
+    float[] taskThroughputBps = throughputs(0, 0, 1000);
+
+    assertTrue(
+        AdaptiveDownloadScheduler.addThroughputSample(
+            taskThroughputBps, taskReport(/* failed= */ true, 0, 2), MAX_CONCURRENCY));
+    assertEquals(700, taskThroughputBps[2], 0.01f);
+  }
+
+  @Test
+  public void addThroughputSample_firstFailedTask_marksConcurrencyTried() {
+    float[] taskThroughputBps = throughputs();
+
+    AdaptiveDownloadScheduler.addThroughputSample(
+        taskThroughputBps, taskReport(/* failed= */ true, 0, 3), MAX_CONCURRENCY);
+
+    assertTrue(taskThroughputBps[3] > 0);
+  }
+
+  @Test
+  public void addThroughputSample_shortTask_isIgnored() {
+    float[] taskThroughputBps = throughputs();
+    AdaptiveDownloadScheduler.TaskReport report =
+        new AdaptiveDownloadScheduler.TaskReport(
+            /* taskId= */ 0, /* failed= */ false, 1000, /* durationMs= */ 100, 2);
+
+    assertFalse(
+        AdaptiveDownloadScheduler.addThroughputSample(taskThroughputBps, report, MAX_CONCURRENCY));
+    assertEquals(0, taskThroughputBps[2], 0);
+  }
+
+  // Sessions over a throttled link.
+
+  @Test
+  public void sessions_withConnectionCappedServer_settleWhereTheLinkIsFull() {
+    // Each connection gets at most 1 Mbps of a 3 Mbps link, so 3 tasks fill it.
+    int[] concurrencies = simulateSessions(3000000, 1000000, MAX_CONCURRENCY);
+
+    assertArrayEquals(new int[] {2, 3, 4, 3, 3, 3, 3, 3, 3, 3}, concurrencies);
+  }
+
+  @Test
+  public void sessions_withFastLink_climbToMaxConcurrency() {
+    int[] concurrencies = simulateSessions(100000000, 1000000, MAX_CONCURRENCY);
+
+    assertEquals(MAX_CONCURRENCY, concurrencies[SESSION_COUNT - 1]);
+  }
+
+  @Test
+  public void sessions_withSlowLink_settleOnOneTask() {
+    // The link is slower than a single connection, so extra tasks only split it.
+    int[] concurrencies = simulateSessions(800000, 1000000, MAX_CONCURRENCY);
+
+    assertArrayEquals(new int[] {2, 3, 2, 1, 1, 1, 1, 1, 1, 1}, concurrencies);
+  }
+
+  @Test
+  public void sessions_withServerFailingExtraConnections_settleBelowTheLimit() {
+    // The server fails every connection beyond the second.
+    int[] concurrencies = simulateSessions(10000000, 1000000, 2);
+
+    assertArrayEquals(new int[] {2, 3, 1, 2, 2, 2, 2, 2, 2, 2}, concurrencies);
+  }
+
+  /**
+   * Runs {@link #SESSION_COUNT} sessions of downloads over a simulated link that {@code linkBps}
+   * is shared on. The server caps each connection at {@code connectionBps}, and fails tasks beyond
+   * its first {@code maxConnections}. As with the scheduler, each session runs with the concurrency
+   * the previous one recommended, and the throughput averages are kept. Returns the concurrency of
+   * each session.
+   */
+  private static int[] simulateSessions(long linkBps, long connectionBps, int maxConnections) {
+    float[] taskThroughputBps = throughputs();
+    int[] concurrencies = new int[SESSION_COUNT];
+    int concurrency = AdaptiveDownloadScheduler.DEFAULT_INITIAL_CONCURRENCY;
+    for (int session = 0; session < SESSION_COUNT; session++) {
+      concurrencies[session] = concurrency;
+      long taskBps = Math.min(connectionBps, linkBps / Math.min(concurrency, maxConnections));
+      float failureRate = 0;
+      int nextConcurrency = concurrency;
+      for (int task = 0; task < TASKS_PER_SESSION; task++) {
+        boolean failed = task % concurrency >= maxConnections;
+        AdaptiveDownloadScheduler.TaskReport report =
+            taskReport(failed, failed ? 0 : taskBps, concurrency);
+        failureRate = AdaptiveDownloadScheduler.updateFailureRate(failureRate, report);
+        AdaptiveDownloadScheduler.addThroughputSample(taskThroughputBps, report, MAX_CONCURRENCY);
+        nextConcurrency = computeConcurrency(concurrency, failureRate, taskThroughputBps);
+      }
+      concurrency = nextConcurrency;
+    }
+    return concurrencies;
+  }
+
+  private static AdaptiveDownloadScheduler.TaskReport taskReport(
+      boolean failed, long throughputBps, int concurrency) {
+    return new AdaptiveDownloadScheduler.TaskReport(
+        /* taskId= */ 0,
+        failed,
+        /* downloadedBytes= */ throughputBps * TASK_DURATION_MS / 8000,
+        TASK_DURATION_MS,
+        concurrency);
+  }
+
+  private static int computeConcurrency(int base, float failureRate, float[] taskThroughputBps) {
+    return AdaptiveDownloadScheduler.computeConcurrency(
+        base, failureRate, taskThroughputBps, MIN_CONCURRENCY, MAX_CONCURRENCY);
+  }
+
+  private static float[] throughputs(float... taskThroughputBps) {
+    float[] throughputs = new float[MAX_CONCURRENCY + 1];
+    System.arraycopy(taskThroughputBps, 0, throughputs, 0, taskThroughputBps.length);
+    return throughputs;
+  }
+}
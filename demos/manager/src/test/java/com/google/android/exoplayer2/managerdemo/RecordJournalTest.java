@@ -0,0 +1,224 @@
+package com.google.android.exoplayer2.managerdemo;
+
+import com.google.android.exoplayer2.util.Util;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordJournalTest {
+
+  private static final int VERSION = 1;
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("RecordJournalTest", null);
+    assertTrue(file.delete());
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+    new File(file.getPath() + ".bak").delete();
+  }
+
+  @Test
+  public void replay_withoutFile_isMissing() throws IOException {
+    RecordJournal journal = new RecordJournal(file, VERSION);
+
+    assertEquals(RecordJournal.RESULT_MISSING, journal.replay(new RecordCollector()));
+  }
+
+  @Test
+  public void replay_afterAppend_returnsRecordsInOrder() throws IOException {
+    writeJournal("a", "bb", "ccc");
+
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    RecordCollector records = new RecordCollector();
+
+    assertEquals(RecordJournal.RESULT_REPLAYED, journal.replay(records));
+    records.assertRecords("a", "bb", "ccc");
+    assertEquals(3, journal.getRecordCount());
+    assertEquals(0, journal.getDroppedByteCount());
+  }
+
+  @Test
+  public void replay_afterTruncationMidRecord_dropsIncompleteRecord() throws IOException {
+    writeJournal("a", "bb", "ccc");
+    long validLength = file.length() - (8 + 3);
+    truncate(file.length() - 2);
+
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    RecordCollector records = new RecordCollector();
+
+    assertEquals(RecordJournal.RESULT_REPLAYED, journal.replay(records));
+    records.assertRecords("a", "bb");
+    assertEquals(2, journal.getRecordCount());
+    assertEquals(8 + 3 - 2, journal.getDroppedByteCount());
+    assertEquals(validLength, file.length());
+  }
+
+  @Test
+  public void replay_afterTruncationMidFrame_dropsIncompleteRecord() throws IOException {
+    writeJournal("a", "bb");
+    truncate(file.length() - (8 + 2) + 5);
+
+    RecordCollector records = new RecordCollector();
+    new RecordJournal(file, VERSION).replay(records);
+
+    records.assertRecords("a");
+  }
+
+  @Test
+  public void append_afterTruncatedReplay_isReplayed() throws IOException {
+    writeJournal("a", "bb");
+    truncate(file.length() - 1);
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    journal.replay(new RecordCollector());
+    journal.append(Util.getUtf8Bytes("dd"));
+    journal.close();
+
+    RecordCollector records = new RecordCollector();
+    new RecordJournal(file, VERSION).replay(records);
+
+    records.assertRecords("a", "dd");
+  }
+
+  @Test
+  public void replay_withCorruptRecord_stopsBeforeIt() throws IOException {
+    writeJournal("a", "bb", "ccc");
+    // Flip the first byte of "bb".
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      long offset = 4 + 8 + 1 + 8;
+      randomAccessFile.seek(offset);
+      randomAccessFile.write(randomAccessFile.read() ^ 0xFF);
+    } finally {
+      randomAccessFile.close();
+    }
+
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    RecordCollector records = new RecordCollector();
+    journal.replay(records);
+
+    records.assertRecords("a");
+    assertEquals(4 + 8 + 1, file.length());
+  }
+
+  @Test
+  public void replay_whenHandlerFails_keepsEarlierRecordsAndTruncates() throws IOException {
+    writeJournal("a", "bad", "ccc");
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    RecordCollector records =
+        new RecordCollector() {
+          @Override
+          public void onRecord(byte[] record) throws IOException {
+            if ("bad".equals(Util.fromUtf8Bytes(record))) {
+              throw new IOException();
+            }
+            super.onRecord(record);
+          }
+        };
+
+    assertEquals(RecordJournal.RESULT_REPLAYED, journal.replay(records));
+    records.assertRecords("a");
+    assertEquals(1, journal.getRecordCount());
+    assertEquals(4 + 8 + 1, file.length());
+
+    RecordCollector reloadedRecords = new RecordCollector();
+    new RecordJournal(file, VERSION).replay(reloadedRecords);
+
+    reloadedRecords.assertRecords("a");
+  }
+
+  @Test
+  public void replay_withTruncatedVersion_startsOver() throws IOException {
+    writeJournal("a");
+    truncate(2);
+
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    RecordCollector records = new RecordCollector();
+
+    assertEquals(RecordJournal.RESULT_REPLAYED, journal.replay(records));
+    records.assertRecords();
+    assertEquals(4, file.length());
+  }
+
+  @Test
+  public void replay_withOtherVersion_leavesFileUntilRewritten() throws IOException {
+    DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+    output.writeInt(VERSION + 1);
+    output.writeInt(12345);
+    output.close();
+
+    RecordJournal journal = new RecordJournal(file, VERSION);
+
+    assertEquals(RecordJournal.RESULT_UNSUPPORTED_VERSION, journal.replay(new RecordCollector()));
+    assertEquals(8, file.length());
+
+    journal.rewrite(Arrays.asList(Util.getUtf8Bytes("a")));
+    RecordCollector records = new RecordCollector();
+
+    assertEquals(RecordJournal.RESULT_REPLAYED, new RecordJournal(file, VERSION).replay(records));
+    records.assertRecords("a");
+  }
+
+  @Test
+  public void rewrite_replacesRecords() throws IOException {
+    writeJournal("a", "bb");
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    journal.replay(new RecordCollector());
+    journal.rewrite(Arrays.asList(Util.getUtf8Bytes("c")));
+    journal.append(Util.getUtf8Bytes("d"));
+    journal.close();
+
+    RecordCollector records = new RecordCollector();
+    new RecordJournal(file, VERSION).replay(records);
+
+    records.assertRecords("c", "d");
+  }
+
+  private void writeJournal(String... records) throws IOException {
+    RecordJournal journal = new RecordJournal(file, VERSION);
+    journal.rewrite(new ArrayList<byte[]>());
+    for (String record : records) {
+      journal.append(Util.getUtf8Bytes(record));
+    }
+    journal.close();
+  }
+
+  private void truncate(long length) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(length);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static class RecordCollector implements RecordJournal.RecordHandler {
+
+    private final List<String> records = new ArrayList<>();
+
+    @Override
+    public void onRecord(byte[] record) throws IOException {
+      records.add(Util.fromUtf8Bytes(record));
+    }
+
+    public void assertRecords(String... expected) {
+      assertEquals(Arrays.asList(expected), records);
+    }
+  }
+}
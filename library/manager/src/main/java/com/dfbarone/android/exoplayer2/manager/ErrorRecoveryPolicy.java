@@ -0,0 +1,72 @@
+package com.dfbarone.android.exoplayer2.manager;
+
+import com.dfbarone.android.exoplayer2.manager.util.PlayerUtils;
+
+/**
+ * Decides how {@link ExoPlayerManager} recovers from a player error, based on its
+ * {@link PlayerUtils#classifyError(com.google.android.exoplayer2.ExoPlaybackException) category}
+ * and on how many times recovery has already been attempted since playback was last ready.
+ *
+ * <p>The default policy retries transient network errors with exponential backoff, falls back to
+ * cached and downloaded media once retrying doesn't help, or straight away for 4xx responses, and
+ * gives decoder and drm errors a single retry.
+ */
+public class ErrorRecoveryPolicy {
+
+  /*** Don't recover, the error is shown to the user. */
+  public static final int ACTION_NONE = 0;
+  /*** Prepare the player again from the saved position, after {@link #getRetryDelayMs(int)}. */
+  public static final int ACTION_RETRY = 1;
+  /*** Prepare the player again from the saved position, reading only cached or downloaded media. */
+  public static final int ACTION_CACHE_FALLBACK = 2;
+
+  public static final int DEFAULT_MAX_NETWORK_RETRIES = 4;
+  public static final long DEFAULT_BASE_RETRY_DELAY_MS = 1000;
+  public static final long DEFAULT_MAX_RETRY_DELAY_MS = 16000;
+
+  private final int maxNetworkRetries;
+  private final long baseRetryDelayMs;
+  private final long maxRetryDelayMs;
+
+  public ErrorRecoveryPolicy() {
+    this(DEFAULT_MAX_NETWORK_RETRIES, DEFAULT_BASE_RETRY_DELAY_MS, DEFAULT_MAX_RETRY_DELAY_MS);
+  }
+
+  public ErrorRecoveryPolicy(int maxNetworkRetries, long baseRetryDelayMs, long maxRetryDelayMs) {
+    this.maxNetworkRetries = maxNetworkRetries;
+    this.baseRetryDelayMs = baseRetryDelayMs;
+    this.maxRetryDelayMs = maxRetryDelayMs;
+  }
+
+  /**
+   * Returns one of the ACTION_* constants for an error of {@code category}, where {@code attempt}
+   * is the number of recovery attempts already made for it.
+   */
+  public int getAction(int category, int attempt) {
+    switch (category) {
+      case PlayerUtils.ERROR_CATEGORY_DNS:
+      case PlayerUtils.ERROR_CATEGORY_CONNECT_TIMEOUT:
+      case PlayerUtils.ERROR_CATEGORY_NETWORK:
+      case PlayerUtils.ERROR_CATEGORY_HTTP_5XX:
+        if (attempt < maxNetworkRetries) {
+          return ACTION_RETRY;
+        }
+        return attempt == maxNetworkRetries ? ACTION_CACHE_FALLBACK : ACTION_NONE;
+      case PlayerUtils.ERROR_CATEGORY_HTTP_4XX:
+        // Asking the same server again won't help.
+        return attempt == 0 ? ACTION_CACHE_FALLBACK : ACTION_NONE;
+      case PlayerUtils.ERROR_CATEGORY_DECODER:
+      case PlayerUtils.ERROR_CATEGORY_DRM:
+        // A decoder may have been reclaimed, or a license request may have failed transiently.
+        return attempt == 0 ? ACTION_RETRY : ACTION_NONE;
+      default:
+        return ACTION_NONE;
+    }
+  }
+
+  /*** Delay before retry number {@code attempt}, doubling from the base delay up to the maximum. */
+  public long getRetryDelayMs(int attempt) {
+    long delayMs = baseRetryDelayMs << Math.min(attempt, 16);
+    return Math.min(delayMs, maxRetryDelayMs);
+  }
+}
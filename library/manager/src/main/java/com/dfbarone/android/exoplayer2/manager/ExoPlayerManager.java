@@ -1,14 +1,23 @@
 package com.dfbarone.android.exoplayer2.manager;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.support.annotation.Nullable;
+import android.util.Log;
 import android.view.View;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.PlaybackPreparer;
 import com.google.android.exoplayer2.Player;
+import com.dfbarone.android.exoplayer2.manager.analytics.FlightRecorder;
+import com.dfbarone.android.exoplayer2.manager.analytics.QoeMetricsCollector;
 import com.dfbarone.android.exoplayer2.manager.util.PlayerUtils;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
@@ -16,29 +25,123 @@ import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.ui.PlayerControlView;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
 /**
  * This class attempts to abstract basic state and non ui functionality.
  */
 public abstract class ExoPlayerManager<D> extends PlayerManager<D>
     implements PlaybackPreparer, PlayerControlView.VisibilityListener {
 
+  private static final String TAG = ExoPlayerManager.class.getSimpleName();
+
   // Saved instance state keys.
   public static final String KEY_TRACK_SELECTOR_PARAMETERS = "track_selector_parameters";
   public static final String KEY_WINDOW = "window";
   public static final String KEY_POSITION = "position";
   public static final String KEY_AUTO_PLAY = "auto_play";
 
+  /**
+   * Lifecycle of the managed player. One of {@link #STATE_IDLE}, {@link #STATE_BUILDING},
+   * {@link #STATE_PREPARED} or {@link #STATE_RELEASED}.
+   */
+  @Documented
+  @Retention(RetentionPolicy.SOURCE)
+  @IntDef({STATE_IDLE, STATE_BUILDING, STATE_PREPARED, STATE_RELEASED})
+  public @interface ManagerState {}
+  /*** No player has been built yet, or the last build failed. */
+  public static final int STATE_IDLE = 0;
+  /*** A player is being built. */
+  public static final int STATE_BUILDING = 1;
+  /*** The player has been prepared with the current media source. */
+  public static final int STATE_PREPARED = 2;
+  /*** The player has been released. */
+  public static final int STATE_RELEASED = 3;
+
   // State variables
   protected boolean startAutoPlay = false;
   protected int startWindow = C.INDEX_UNSET;
   protected long startPosition = C.TIME_UNSET;
   private boolean mDebug = false;
+  @ManagerState protected int managerState = STATE_IDLE;
+  protected int avoidedPrepareCount = 0;
+  protected int fastSwitchCount = 0;
+  protected int rebuildSwitchCount = 0;
 
   // Track selector
   protected DefaultTrackSelector trackSelector;
   protected DefaultTrackSelector.Parameters trackSelectorParameters;
   protected TrackGroupArray lastSeenTrackGroupArray;
 
+  // Warm player retention
+  protected long retainPlayerMs = 0;
+  protected boolean playerRetained = false;
+  protected int warmResumeCount = 0;
+  protected int coldResumeCount = 0;
+  // Whether a player was released since the last one was built. Only then is a build a cold resume.
+  protected boolean playerReleased = false;
+  private final Handler retainHandler = new Handler(Looper.getMainLooper());
+  private final Runnable retainTimeout = new Runnable() {
+    @Override
+    public void run() {
+      releasePlayer();
+    }
+  };
+
+  // Playlist item transitions
+  protected int lastWindowIndex = C.INDEX_UNSET;
+  protected long transitionStartMs = C.TIME_UNSET;
+  protected int transitionCount = 0;
+  protected long lastTransitionGapMs = C.TIME_UNSET;
+  protected long maxTransitionGapMs = 0;
+  protected long totalTransitionGapMs = 0;
+
+  // Behind live window recovery
+  protected long liveRecoveryStartMs = C.TIME_UNSET;
+  protected int liveRecoveryCount = 0;
+  protected long lastLiveRecoveryMs = C.TIME_UNSET;
+  protected long maxLiveRecoveryMs = 0;
+
+  // Error recovery, see ErrorRecoveryPolicy
+  protected ErrorRecoveryPolicy errorRecoveryPolicy = new ErrorRecoveryPolicy();
+  protected int recoveryCategory = PlayerUtils.ERROR_CATEGORY_OTHER;
+  protected int recoveryAttempt = 0;
+  protected int pendingRecoveryAction = ErrorRecoveryPolicy.ACTION_NONE;
+  protected ExoPlaybackException recoveryError;
+  protected long recoveryStartMs = C.TIME_UNSET;
+  protected int recoveryAttemptCount = 0;
+  protected int recoveredErrorCount = 0;
+  protected long lastRecoveryMs = C.TIME_UNSET;
+  protected long maxRecoveryMs = 0;
+  private final Handler recoveryHandler = new Handler(Looper.getMainLooper());
+  private final Runnable recoveryRunnable = new Runnable() {
+    @Override
+    public void run() {
+      if (pendingRecoveryAction == ErrorRecoveryPolicy.ACTION_CACHE_FALLBACK
+          && !fallBackToCache()) {
+        // There is nothing to fall back to, so the error isn't recovered from after all.
+        ExoPlaybackException error = recoveryError;
+        cancelRecovery();
+        updateButtonVisibilities();
+        showControls();
+        onError("onPlayerError", error);
+        return;
+      }
+      retryPlayback();
+    }
+  };
+
+  // Quality of experience metrics, attached to every player and reset with each new one
+  protected final QoeMetricsCollector qoeMetrics = new QoeMetricsCollector();
+
+  // Recent player events, attached to every player and kept across players for error post-mortems
+  protected final FlightRecorder flightRecorder = new FlightRecorder();
+  protected FlightRecorder.Snapshot lastErrorSnapshot;
+
   public ExoPlayerManager(Context context, View root) {
     super(context, root);
   }
@@ -51,12 +154,205 @@ public abstract class ExoPlayerManager<D> extends PlayerManager<D>
     return mDebug;
   }
 
+  /**
+   * Keeps a prepared player warm for the given grace period when {@link #suspendPlayer()} is
+   * called, instead of releasing it. A value of 0 (the default) disables retention.
+   */
+  public void setRetainPlayerMs(long retainPlayerMs) {
+    this.retainPlayerMs = retainPlayerMs;
+  }
+
+  public long getRetainPlayerMs() {
+    return retainPlayerMs;
+  }
+
+  @ManagerState
+  public int getManagerState() {
+    return managerState;
+  }
+
+  /*** Number of initializePlayer() calls that kept an already prepared source. */
+  public int getAvoidedPrepareCount() {
+    return avoidedPrepareCount;
+  }
+
+  /*** Number of onNewIntent() calls that kept the player and only swapped its media source. */
+  public int getFastSwitchCount() {
+    return fastSwitchCount;
+  }
+
+  /*** Number of onNewIntent() calls that released the player so that it is built again. */
+  public int getRebuildSwitchCount() {
+    return rebuildSwitchCount;
+  }
+
+  /*** Number of times initializePlayer() resumed a retained player. */
+  public int getWarmResumeCount() {
+    return warmResumeCount;
+  }
+
+  /*** Number of times initializePlayer() had to build a new player after one was released. */
+  public int getColdResumeCount() {
+    return coldResumeCount;
+  }
+
+  /*** Number of playlist item boundaries crossed during playback. */
+  public int getTransitionCount() {
+    return transitionCount;
+  }
+
+  /*** Time spent rebuffering at the last item boundary, or {@link C#TIME_UNSET}. */
+  public long getLastTransitionGapMs() {
+    return lastTransitionGapMs;
+  }
+
+  public long getMaxTransitionGapMs() {
+    return maxTransitionGapMs;
+  }
+
+  public long getTotalTransitionGapMs() {
+    return totalTransitionGapMs;
+  }
+
+  /*** Number of times playback fell behind the live window and was recovered. */
+  public int getLiveRecoveryCount() {
+    return liveRecoveryCount;
+  }
+
+  /*** Time from the last behind live window error until playback was ready again. */
+  public long getLastLiveRecoveryMs() {
+    return lastLiveRecoveryMs;
+  }
+
+  public long getMaxLiveRecoveryMs() {
+    return maxLiveRecoveryMs;
+  }
+
+  public void setErrorRecoveryPolicy(ErrorRecoveryPolicy errorRecoveryPolicy) {
+    this.errorRecoveryPolicy = errorRecoveryPolicy;
+  }
+
+  public ErrorRecoveryPolicy getErrorRecoveryPolicy() {
+    return errorRecoveryPolicy;
+  }
+
+  /*** Number of retries and cache fallbacks made for player errors, successful or not. */
+  public int getRecoveryAttemptCount() {
+    return recoveryAttemptCount;
+  }
+
+  /*** Number of player errors after which playback got ready again without user interaction. */
+  public int getRecoveredErrorCount() {
+    return recoveredErrorCount;
+  }
+
+  /*** Time from the first error of the last recovered streak until playback was ready again. */
+  public long getLastRecoveryMs() {
+    return lastRecoveryMs;
+  }
+
+  public long getMaxRecoveryMs() {
+    return maxRecoveryMs;
+  }
+
+  /*** Quality of experience metrics of the current, or last, playback session. */
+  public QoeMetricsCollector getQoeMetrics() {
+    return qoeMetrics;
+  }
+
+  public FlightRecorder getFlightRecorder() {
+    return flightRecorder;
+  }
+
+  /**
+   * Returns the events that led up to the last error, captured just before it was passed to
+   * {@link EventListener#onError(String, Exception)}, or null if there hasn't been one.
+   */
+  @Nullable
+  public FlightRecorder.Snapshot getLastErrorSnapshot() {
+    return lastErrorSnapshot;
+  }
+
+  /*** Writes the recorded events to {@code file}. */
+  public void dumpFlightRecorder(File file) throws IOException {
+    flightRecorder.dump(file);
+  }
+
   // Lifecycle methods
+  /**
+   * Switches to the content of {@code intent}. The current player is reused, and only its media
+   * source replaced, if {@link #canSwitchMediaSource(Intent)} allows it. Otherwise it is released
+   * and the next {@link #initializePlayer()} builds a new one.
+   */
   public void onNewIntent(Intent intent) {
+    cancelRecovery();
+    boolean reusePlayer = canSwitchMediaSource(intent);
+    if (reusePlayer) {
+      clearStartPosition();
+      setIntent(intent);
+      lastWindowIndex = C.INDEX_UNSET;
+      transitionStartMs = C.TIME_UNSET;
+      reusePlayer = switchMediaSource();
+      if (reusePlayer) {
+        fastSwitchCount++;
+      } else {
+        // The switch failed and released the player, so the next initializePlayer() rebuilds it.
+        releaseAdsLoader();
+        rebuildSwitchCount++;
+      }
+    } else {
+      releasePlayer();
+      releaseAdsLoader();
+      clearStartPosition();
+      setIntent(intent);
+      rebuildSwitchCount++;
+    }
+    onMediaSwitch(reusePlayer);
+  }
+
+  /**
+   * Call from onPause/onStop. Releases the player, or detaches it from its view and keeps it
+   * prepared for {@link #getRetainPlayerMs()} if retention is enabled.
+   */
+  public void suspendPlayer() {
+    cancelRecovery();
+    if (retainPlayerMs <= 0 || getPlayer() == null) {
+      releasePlayer();
+      return;
+    }
+    updateTrackSelectorParameters();
+    updateStartPosition();
+    if (!playerRetained) {
+      detachPlayer();
+      playerRetained = true;
+    }
+    retainHandler.removeCallbacks(retainTimeout);
+    retainHandler.postDelayed(retainTimeout, retainPlayerMs);
+  }
+
+  /*** Releases everything, including resources kept alive across player rebuilds. */
+  public void onDestroy() {
+    cancelRecovery();
     releasePlayer();
     releaseAdsLoader();
-    clearStartPosition();
-    setIntent(intent);
+    releaseMediaDrm();
+  }
+
+  /**
+   * Call from {@link ComponentCallbacks2#onTrimMemory(int)}. Under memory pressure a retained player
+   * is released, and so is the media drm once there is no player using it, or being built with it.
+   */
+  public void onTrimMemory(int level) {
+    if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+        || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+        || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+      if (playerRetained) {
+        releasePlayer();
+      }
+      if (getPlayer() == null && !isBuilding()) {
+        releaseMediaDrm();
+      }
+    }
   }
 
   public void onSaveInstanceState(Bundle outState) {
@@ -102,7 +398,160 @@ public abstract class ExoPlayerManager<D> extends PlayerManager<D>
     }
   }
 
+  // Retention methods
+
+  /*** Reattaches a retained player. Returns false if there is no retained player. */
+  protected boolean resumeRetainedPlayer() {
+    if (!playerRetained) {
+      return false;
+    }
+    clearRetainedPlayer();
+    if (getPlayer() == null) {
+      return false;
+    }
+    attachPlayer();
+    warmResumeCount++;
+    return true;
+  }
+
+  protected void clearRetainedPlayer() {
+    retainHandler.removeCallbacks(retainTimeout);
+    playerRetained = false;
+  }
+
+  /*** Detaches the player from its view, pauses it and trims its buffers. */
+  protected abstract void detachPlayer();
+
+  /*** Reverses {@link #detachPlayer()}. */
+  protected abstract void attachPlayer();
+
+  // Transition methods
+
+  /*** Called for every playlist item boundary with the time playback stalled crossing it. */
+  protected void onItemTransition(int windowIndex, long gapMs) {
+    transitionCount++;
+    lastTransitionGapMs = gapMs;
+    maxTransitionGapMs = Math.max(maxTransitionGapMs, gapMs);
+    totalTransitionGapMs += gapMs;
+    if (debug()) {
+      Log.d(TAG, "onItemTransition() window " + windowIndex + " gap " + gapMs + "ms");
+    }
+  }
+
   // UI methods
+  /**
+   * Called when playback fell behind the live window. Restarts playback at the live edge. The
+   * default implementation goes through {@link #initializePlayer()}.
+   */
+  protected void recoverBehindLiveWindow() {
+    initializePlayer();
+  }
+
+  /*** Called once playback is ready again after falling behind the live window. */
+  protected void onLiveRecovery(long recoveryMs) {
+    liveRecoveryCount++;
+    lastLiveRecoveryMs = recoveryMs;
+    maxLiveRecoveryMs = Math.max(maxLiveRecoveryMs, recoveryMs);
+    if (debug()) {
+      Log.d(TAG, "onLiveRecovery() " + recoveryMs + "ms");
+    }
+  }
+
+  /**
+   * Applies {@link #getErrorRecoveryPolicy()} to an error of {@code category}. Returns false if
+   * the error is not recovered from, in which case recovery state is reset.
+   */
+  protected boolean recoverFromError(int category) {
+    if (category != recoveryCategory) {
+      recoveryAttempt = 0;
+    }
+    int action = errorRecoveryPolicy.getAction(category, recoveryAttempt);
+    if (action == ErrorRecoveryPolicy.ACTION_NONE) {
+      cancelRecovery();
+      return false;
+    }
+    updateStartPosition();
+    if (recoveryStartMs == C.TIME_UNSET) {
+      recoveryStartMs = SystemClock.elapsedRealtime();
+    }
+    long delayMs = action == ErrorRecoveryPolicy.ACTION_RETRY
+        ? errorRecoveryPolicy.getRetryDelayMs(recoveryAttempt) : 0;
+    recoveryCategory = category;
+    recoveryAttempt++;
+    recoveryAttemptCount++;
+    pendingRecoveryAction = action;
+    onRecoveryAttempt(category, action, recoveryAttempt, delayMs);
+    recoveryHandler.removeCallbacks(recoveryRunnable);
+    recoveryHandler.postDelayed(recoveryRunnable, delayMs);
+    return true;
+  }
+
+  /*** Drops any scheduled recovery attempt and forgets the current error streak. */
+  protected void cancelRecovery() {
+    recoveryHandler.removeCallbacks(recoveryRunnable);
+    recoveryCategory = PlayerUtils.ERROR_CATEGORY_OTHER;
+    recoveryAttempt = 0;
+    pendingRecoveryAction = ErrorRecoveryPolicy.ACTION_NONE;
+    recoveryError = null;
+    recoveryStartMs = C.TIME_UNSET;
+  }
+
+  /**
+   * Prepares the failed player again from the saved position. The default implementation goes
+   * through {@link #initializePlayer()}.
+   */
+  protected void retryPlayback() {
+    initializePlayer();
+  }
+
+  /**
+   * Switches the player to a source that only reads cached or downloaded media. Returns false if
+   * that isn't possible, which is the default.
+   */
+  protected boolean fallBackToCache() {
+    return false;
+  }
+
+  /*** Called for every recovery attempt, before it is scheduled {@code delayMs} from now. */
+  protected void onRecoveryAttempt(int category, int action, int attempt, long delayMs) {
+    if (debug()) {
+      Log.d(TAG, "onRecoveryAttempt() " + PlayerUtils.getErrorCategoryName(category) + " action "
+          + action + " attempt " + attempt + " in " + delayMs + "ms");
+    }
+  }
+
+  /*** Called once playback is ready again after {@code attempts} recovery attempts. */
+  protected void onRecovery(int category, int attempts, long recoveryMs) {
+    recoveredErrorCount++;
+    lastRecoveryMs = recoveryMs;
+    maxRecoveryMs = Math.max(maxRecoveryMs, recoveryMs);
+    if (debug()) {
+      Log.d(TAG, "onRecovery() " + PlayerUtils.getErrorCategoryName(category) + " after "
+          + attempts + " attempts, " + recoveryMs + "ms");
+    }
+  }
+
+  /*** Returns whether the current player can play {@code intent} with just a new media source. */
+  protected boolean canSwitchMediaSource(Intent intent) {
+    return false;
+  }
+
+  /**
+   * Replaces the media source of the current player with one for the current intent. Returns
+   * whether the player was kept, or false if the switch failed and the player was released.
+   */
+  protected abstract boolean switchMediaSource();
+
+  /*** Returns whether a player is being built off the main thread, and isn't available yet. */
+  protected abstract boolean isBuilding();
+
+  /*** Called after onNewIntent(), with whether the player was reused or will be rebuilt. */
+  protected void onMediaSwitch(boolean reusedPlayer) {
+    if (debug()) {
+      Log.d(TAG, "onMediaSwitch() " + (reusedPlayer ? "reused player" : "rebuilding player"));
+    }
+  }
+
   protected abstract void updateButtonVisibilities();
 
   protected abstract void showControls();
@@ -123,11 +572,39 @@ public abstract class ExoPlayerManager<D> extends PlayerManager<D>
     if (playbackState == Player.STATE_ENDED) {
       showControls();
     }
+    if (lastWindowIndex == C.INDEX_UNSET && getPlayer() != null) {
+      lastWindowIndex = getPlayer().getCurrentWindowIndex();
+    }
+    if (playbackState == Player.STATE_READY && liveRecoveryStartMs != C.TIME_UNSET) {
+      onLiveRecovery(SystemClock.elapsedRealtime() - liveRecoveryStartMs);
+      liveRecoveryStartMs = C.TIME_UNSET;
+    }
+    if (playbackState == Player.STATE_READY && recoveryStartMs != C.TIME_UNSET) {
+      onRecovery(recoveryCategory, recoveryAttempt,
+          SystemClock.elapsedRealtime() - recoveryStartMs);
+      cancelRecovery();
+    }
+    if (playbackState == Player.STATE_READY && transitionStartMs != C.TIME_UNSET) {
+      onItemTransition(lastWindowIndex, SystemClock.elapsedRealtime() - transitionStartMs);
+      transitionStartMs = C.TIME_UNSET;
+    }
     updateButtonVisibilities();
   }
 
   @Override
   public void onPositionDiscontinuity(@Player.DiscontinuityReason int reason) {
+    int windowIndex = getPlayer().getCurrentWindowIndex();
+    if (reason == Player.DISCONTINUITY_REASON_PERIOD_TRANSITION && windowIndex != lastWindowIndex
+        && lastWindowIndex != C.INDEX_UNSET) {
+      if (getPlayer().getPlaybackState() == Player.STATE_READY) {
+        onItemTransition(windowIndex, 0);
+      } else {
+        transitionStartMs = SystemClock.elapsedRealtime();
+      }
+    } else if (reason != Player.DISCONTINUITY_REASON_PERIOD_TRANSITION) {
+      transitionStartMs = C.TIME_UNSET;
+    }
+    lastWindowIndex = windowIndex;
     if (getPlayer().getPlaybackError() != null) {
       // The user has performed a seek whilst in the error state. Update the resume position so
       // that if the user then retries, playback resumes from the position to which they seeked.
@@ -135,16 +612,29 @@ public abstract class ExoPlayerManager<D> extends PlayerManager<D>
     }
   }
 
+  @Override
+  protected void onError(String message, Exception e) {
+    lastErrorSnapshot = flightRecorder.snapshot();
+    super.onError(message, e);
+  }
+
   @Override
   public void onPlayerError(ExoPlaybackException e) {
-    if (PlayerUtils.isBehindLiveWindow(e)) {
+    int category = PlayerUtils.classifyError(e);
+    if (category == PlayerUtils.ERROR_CATEGORY_BEHIND_LIVE_WINDOW) {
       clearStartPosition();
-      initializePlayer();
-    } else {
-      updateStartPosition();
+      liveRecoveryStartMs = SystemClock.elapsedRealtime();
+      recoverBehindLiveWindow();
+      return;
+    }
+    recoveryError = e;
+    if (recoverFromError(category)) {
       updateButtonVisibilities();
-      showControls();
+      return;
     }
+    updateStartPosition();
+    updateButtonVisibilities();
+    showControls();
     onError("onPlayerError", e);
   }
 
@@ -3,9 +3,12 @@ package com.dfbarone.android.exoplayer2.manager;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.view.View;
 
+import com.dfbarone.android.exoplayer2.manager.analytics.StartupTimingReport;
 import com.google.android.exoplayer2.LoadControl;
 import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
@@ -100,8 +103,20 @@ public abstract class PlayerManager<D> implements Player.EventListener {
     onError(message, null);
   }
 
-  /*** Notify parent of potentially fatal error. IllegalStateException is a fatal error in initializePlayer(). */
-  protected void onError(String message, Exception e) {
+  /***
+   * Notify parent of potentially fatal error. IllegalStateException is a fatal error in
+   * initializePlayer(). Errors raised on other threads are delivered on the main thread.
+   */
+  protected void onError(final String message, final Exception e) {
+    if (Looper.myLooper() != Looper.getMainLooper()) {
+      new Handler(Looper.getMainLooper()).post(new Runnable() {
+        @Override
+        public void run() {
+          onError(message, e);
+        }
+      });
+      return;
+    }
     if (eventListener != null) {
       eventListener.onError(message, e);
     }
@@ -113,6 +128,13 @@ public abstract class PlayerManager<D> implements Player.EventListener {
     }
   }
 
+  /*** Notify parent of where startup time went for the session that just started */
+  protected void onStartupTimingReport(StartupTimingReport report) {
+    if (eventListener != null) {
+      eventListener.onStartupTimingReport(report);
+    }
+  }
+
   /*** PlayerManager Dependencies*/
   public interface EventListener {
 
@@ -123,6 +145,9 @@ public abstract class PlayerManager<D> implements Player.EventListener {
     void onError(String message, Exception e);
 
     void onFinish();
+
+    /*** Called once per playback session, when it is ready or when it is released before that. */
+    void onStartupTimingReport(StartupTimingReport report);
   }
 
   /*** MediaSource builder methods */
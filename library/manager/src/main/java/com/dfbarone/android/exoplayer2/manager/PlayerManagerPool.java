@@ -0,0 +1,300 @@
+package com.dfbarone.android.exoplayer2.manager;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.dfbarone.android.exoplayer2.manager.upstream.PersistentBandwidthMeter;
+import com.google.android.exoplayer2.DefaultLoadControl;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.drm.DrmSessionManager;
+import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
+import com.google.android.exoplayer2.ui.PlayerView;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Leases {@link SimpleExoPlayer}s to {@link PlayerView}s for feeds and grids of short videos.
+ *
+ * <p>At most {@code maxVideoDecoders} players are prepared at any time, since each prepared player
+ * holds a decoder. Items about to become visible are prepared with {@link #preload}, visible items
+ * are played with {@link #acquire}, items scrolled out of view are paused with {@link #pause} and
+ * items far away are returned with {@link #release}. When the budget is exhausted the least
+ * recently used paused item is stopped, and its player is reused for the next item. Surfaces move
+ * between views with {@link PlayerView#switchTargetView}, so players are never recreated.
+ *
+ * <p>Must be used on the application thread.
+ */
+public class PlayerManagerPool {
+
+  public static final int DEFAULT_MAX_VIDEO_DECODERS = 3;
+
+  /*** Builds the players of the pool. */
+  public interface PlayerFactory {
+
+    SimpleExoPlayer createPlayer(Context context);
+  }
+
+  private final Context context;
+  private final PlayerManager.MediaSourceBuilder mediaSourceBuilder;
+  private final PlayerFactory playerFactory;
+  private final int maxVideoDecoders;
+  // Prepared players by item key, least recently used first.
+  private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ArrayDeque<SimpleExoPlayer> idlePlayers = new ArrayDeque<>();
+
+  // Statistics
+  private int hitCount;
+  private int missCount;
+  private int playersCreated;
+  private long totalLeaseLatencyUs;
+  private long maxLeaseLatencyUs;
+
+  public PlayerManagerPool(Context context, PlayerManager.MediaSourceBuilder mediaSourceBuilder) {
+    this(context, mediaSourceBuilder, DEFAULT_MAX_VIDEO_DECODERS);
+  }
+
+  public PlayerManagerPool(Context context, PlayerManager.MediaSourceBuilder mediaSourceBuilder,
+                           int maxVideoDecoders) {
+    this(context, mediaSourceBuilder, maxVideoDecoders, new DefaultPlayerFactory());
+  }
+
+  public PlayerManagerPool(Context context, PlayerManager.MediaSourceBuilder mediaSourceBuilder,
+                           int maxVideoDecoders, PlayerFactory playerFactory) {
+    if (maxVideoDecoders < 1) {
+      throw new IllegalArgumentException("maxVideoDecoders must be at least 1");
+    }
+    this.context = context.getApplicationContext();
+    this.mediaSourceBuilder = mediaSourceBuilder;
+    this.maxVideoDecoders = maxVideoDecoders;
+    this.playerFactory = playerFactory;
+  }
+
+  /*** Builds idle players up front, so that later leases don't pay for player creation. */
+  public void prewarm(int count) {
+    int target = Math.min(count, maxVideoDecoders) - entries.size();
+    while (idlePlayers.size() < target) {
+      idlePlayers.add(createPlayer());
+    }
+  }
+
+  /**
+   * Prepares {@code uri} for the item {@code key} without playing it. Returns false if every
+   * decoder is in use by an item that is playing.
+   */
+  public boolean preload(Object key, Uri uri, @Nullable String overrideExtension) {
+    if (entries.containsKey(key)) {
+      return true;
+    }
+    if (!makeRoom(/* evictPlaying= */ false)) {
+      return false;
+    }
+    prepare(key, uri, overrideExtension);
+    return true;
+  }
+
+  /**
+   * Plays the item {@code key} in {@code playerView} and returns its player. Uses the player
+   * prepared by {@link #preload} if there is one. Otherwise the item is prepared now, stopping the
+   * least recently used item if the decoder budget is exhausted.
+   */
+  public SimpleExoPlayer acquire(Object key, Uri uri, @Nullable String overrideExtension,
+                                 PlayerView playerView) {
+    long startNs = System.nanoTime();
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      hitCount++;
+    } else {
+      missCount++;
+      makeRoom(/* evictPlaying= */ true);
+      entry = prepare(key, uri, overrideExtension);
+    }
+    // Take the view away from whichever item showed in it before.
+    for (Entry other : entries.values()) {
+      if (other != entry && other.playerView == playerView) {
+        other.player.setPlayWhenReady(false);
+        other.playerView = null;
+      }
+    }
+    if (entry.playerView != playerView) {
+      PlayerView.switchTargetView(entry.player, entry.playerView, playerView);
+      entry.playerView = playerView;
+    }
+    entry.player.setPlayWhenReady(true);
+
+    long latencyUs = (System.nanoTime() - startNs) / 1000;
+    totalLeaseLatencyUs += latencyUs;
+    maxLeaseLatencyUs = Math.max(maxLeaseLatencyUs, latencyUs);
+    return entry.player;
+  }
+
+  /*** Pauses the item {@code key} and detaches it from its view, keeping it prepared. */
+  public void pause(Object key) {
+    Entry entry = entries.get(key);
+    if (entry != null) {
+      entry.player.setPlayWhenReady(false);
+      detachView(entry);
+    }
+  }
+
+  /*** Stops the item {@code key}, freeing its decoder, and keeps its player for other items. */
+  public void release(Object key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      recycle(entry);
+    }
+  }
+
+  /*** Releases every player. The pool can still be used afterwards. */
+  public void releaseAll() {
+    for (Entry entry : entries.values()) {
+      detachView(entry);
+      entry.player.release();
+    }
+    entries.clear();
+    for (SimpleExoPlayer player : idlePlayers) {
+      player.release();
+    }
+    idlePlayers.clear();
+  }
+
+  @Nullable
+  public SimpleExoPlayer getPlayer(Object key) {
+    Entry entry = entries.get(key);
+    return entry == null ? null : entry.player;
+  }
+
+  public int getMaxVideoDecoders() {
+    return maxVideoDecoders;
+  }
+
+  /*** Number of items currently prepared, each holding a decoder. */
+  public int getPreparedCount() {
+    return entries.size();
+  }
+
+  /*** Number of players built since the pool was created. */
+  public int getPlayersCreated() {
+    return playersCreated;
+  }
+
+  public int getHitCount() {
+    return hitCount;
+  }
+
+  public int getMissCount() {
+    return missCount;
+  }
+
+  /*** Fraction of leases that found their item already prepared. */
+  public float getHitRate() {
+    int leases = hitCount + missCount;
+    return leases == 0 ? 0f : (float) hitCount / leases;
+  }
+
+  /*** Average time {@link #acquire} took, in microseconds. */
+  public long getAverageLeaseLatencyUs() {
+    int leases = hitCount + missCount;
+    return leases == 0 ? 0 : totalLeaseLatencyUs / leases;
+  }
+
+  public long getMaxLeaseLatencyUs() {
+    return maxLeaseLatencyUs;
+  }
+
+  // Internal methods
+
+  private Entry prepare(Object key, Uri uri, @Nullable String overrideExtension) {
+    SimpleExoPlayer player = idlePlayers.isEmpty() ? createPlayer() : idlePlayers.poll();
+    player.setPlayWhenReady(false);
+    player.prepare(mediaSourceBuilder.buildMediaSource(uri, overrideExtension));
+    Entry entry = new Entry(player);
+    entries.put(key, entry);
+    return entry;
+  }
+
+  /**
+   * Stops least recently used items until there is a free decoder. Paused items go first. Playing
+   * items are only stopped if {@code evictPlaying} is set.
+   */
+  private boolean makeRoom(boolean evictPlaying) {
+    while (entries.size() >= maxVideoDecoders) {
+      Entry victim = null;
+      Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Entry entry = iterator.next().getValue();
+        if (entry.playerView == null) {
+          victim = entry;
+          iterator.remove();
+          break;
+        }
+      }
+      if (victim == null) {
+        if (!evictPlaying) {
+          return false;
+        }
+        iterator = entries.entrySet().iterator();
+        victim = iterator.next().getValue();
+        iterator.remove();
+      }
+      recycle(victim);
+    }
+    return true;
+  }
+
+  private void recycle(Entry entry) {
+    detachView(entry);
+    entry.player.setPlayWhenReady(false);
+    entry.player.stop(/* reset= */ true);
+    if (idlePlayers.size() < maxVideoDecoders) {
+      idlePlayers.add(entry.player);
+    } else {
+      entry.player.release();
+    }
+  }
+
+  private void detachView(Entry entry) {
+    if (entry.playerView != null) {
+      if (entry.playerView.getPlayer() == entry.player) {
+        entry.playerView.setPlayer(null);
+      }
+      entry.playerView = null;
+    }
+  }
+
+  private SimpleExoPlayer createPlayer() {
+    playersCreated++;
+    return playerFactory.createPlayer(context);
+  }
+
+  private static final class Entry {
+
+    private final SimpleExoPlayer player;
+    @Nullable private PlayerView playerView;
+
+    private Entry(SimpleExoPlayer player) {
+      this.player = player;
+    }
+  }
+
+  /**
+   * Builds players sharing the {@link PersistentBandwidthMeter}, with the default renderers, track
+   * selector and load control.
+   */
+  public static class DefaultPlayerFactory implements PlayerFactory {
+
+    @Override
+    public SimpleExoPlayer createPlayer(Context context) {
+      return ExoPlayerFactory.newSimpleInstance(context, new DefaultRenderersFactory(context),
+          new DefaultTrackSelector(), new DefaultLoadControl(),
+          (DrmSessionManager<FrameworkMediaCrypto>) null,
+          PersistentBandwidthMeter.getInstance(context));
+    }
+  }
+}
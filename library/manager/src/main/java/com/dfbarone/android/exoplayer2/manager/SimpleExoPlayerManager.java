@@ -19,6 +19,9 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.util.Pair;
 import android.view.KeyEvent;
@@ -33,41 +36,63 @@ import com.google.android.exoplayer2.DefaultLoadControl;
 import com.google.android.exoplayer2.DefaultRenderersFactory;
 import com.google.android.exoplayer2.ExoPlaybackException;
 import com.google.android.exoplayer2.ExoPlayerFactory;
+import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.drm.DefaultDrmSessionManager;
+import com.google.android.exoplayer2.drm.DrmInitData;
 import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
 import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
 import com.google.android.exoplayer2.drm.HttpMediaDrmCallback;
 import com.google.android.exoplayer2.drm.UnsupportedDrmException;
+import com.dfbarone.android.exoplayer2.manager.analytics.StartupTimer;
+import com.dfbarone.android.exoplayer2.manager.analytics.StartupTimingReport;
+import com.dfbarone.android.exoplayer2.manager.drm.OfflineLicenseStore;
+import com.dfbarone.android.exoplayer2.manager.mediacodec.DecoderCapabilityCache;
 import com.dfbarone.android.exoplayer2.manager.util.ContextHelper;
+import com.dfbarone.android.exoplayer2.manager.source.LazyPlaylist;
+import com.dfbarone.android.exoplayer2.manager.source.MediaSourceFactoryRegistry;
+import com.dfbarone.android.exoplayer2.manager.source.PlaylistPreloader;
+import com.dfbarone.android.exoplayer2.manager.trackselection.AbrAlgorithmRegistry;
+import com.dfbarone.android.exoplayer2.manager.upstream.ManifestCache;
+import com.dfbarone.android.exoplayer2.manager.upstream.ManifestCacheDataSource;
+import com.dfbarone.android.exoplayer2.manager.upstream.PersistentBandwidthMeter;
 import com.dfbarone.android.exoplayer2.manager.util.PlayerUtils;
 import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.TrackGroupArray;
 import com.google.android.exoplayer2.source.ads.AdsLoader;
-import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector;
 import com.google.android.exoplayer2.trackselection.MappingTrackSelector.MappedTrackInfo;
-import com.google.android.exoplayer2.trackselection.RandomTrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
 import com.google.android.exoplayer2.ui.DebugTextViewHelper;
 import com.google.android.exoplayer2.ui.PlayerView;
 import com.google.android.exoplayer2.ui.TrackSelectionView;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DefaultDataSourceFactory;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSourceFactory;
 import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.util.ErrorMessageProvider;
 import com.google.android.exoplayer2.util.EventLogger;
+import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.Util;
 
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * An class that plays media using {@link SimpleExoPlayer}.
@@ -99,30 +124,100 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
   public static final String PREFER_EXTENSION_DECODERS_EXTRA = "prefer_extension_decoders";
 
   public static final String ABR_ALGORITHM_EXTRA = "abr_algorithm";
-  public static final String ABR_ALGORITHM_DEFAULT = "default";
-  public static final String ABR_ALGORITHM_RANDOM = "random";
+  public static final String ABR_ALGORITHM_DEFAULT = AbrAlgorithmRegistry.ALGORITHM_DEFAULT;
+  public static final String ABR_ALGORITHM_RANDOM = AbrAlgorithmRegistry.ALGORITHM_RANDOM;
+  public static final String ABR_ALGORITHM_BOLA = AbrAlgorithmRegistry.ALGORITHM_BOLA;
+  public static final String ABR_ALGORITHM_HYBRID = AbrAlgorithmRegistry.ALGORITHM_HYBRID;
 
   public static final String AD_TAG_URI_EXTRA = "ad_tag_uri";
 
+  public static final long DEFAULT_PRELOAD_LOOKAHEAD_MS = 10000;
+  public static final long DEFAULT_PRELOAD_BYTE_BUDGET = 1024 * 1024;
+  private static final long PRELOAD_CHECK_INTERVAL_MS = 1000;
+
   // ui
   protected PlayerView playerView;
   protected LinearLayout debugRootView;
   protected TextView debugTextView;
+  // Track selection buttons by renderer index, created once and then only shown or hidden
+  protected Button[] trackButtons = new Button[0];
+  private int[] trackButtonLabels = new int[0];
+  private TrackGroupArray buttonTrackGroups;
 
   // core
   protected SimpleExoPlayer player;
   protected FrameworkMediaDrm mediaDrm;
+  protected UUID mediaDrmUuid;
   protected MediaSource mediaSource;
+  // The intent and source the player was last prepared with
+  protected Intent preparedIntent;
+  protected MediaSource preparedMediaSource;
+  protected SuspendableLoadControl loadControl;
+  protected LazyPlaylist playlist;
   protected DebugTextViewHelper debugViewHelper;
+  protected final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  // Startup timing. A session starts with every player build and is reported once it is ready.
+  protected final StartupTimer startupTimer = new StartupTimer(new StartupTimer.Listener() {
+    @Override
+    public void onStartupTimingReport(StartupTimingReport report) {
+      SimpleExoPlayerManager.this.onStartupTimingReport(report);
+    }
+  });
 
   // Fields used only for ad playback. The ads loader is loaded via reflection.
   protected AdsLoader adsLoader;
   protected Uri loadedAdTagUri;
 
+  // Lazy playlist variables. Only items in [current - behind, current + ahead] are materialized.
+  protected boolean lazyPlaylist = false;
+  protected int lazyPlaylistItemsBehind = 1;
+  protected int lazyPlaylistItemsAhead = 2;
+
+  // Playlist preload variables
+  protected long preloadLookaheadMs = DEFAULT_PRELOAD_LOOKAHEAD_MS;
+  protected long preloadByteBudget = DEFAULT_PRELOAD_BYTE_BUDGET;
+  protected PlaylistPreloader preloader;
+  protected Uri[] playlistUris;
+  protected String[] playlistExtensions;
+  private int preloadedWindowIndex = C.INDEX_UNSET;
+  private final Runnable preloadCheck = new Runnable() {
+    @Override
+    public void run() {
+      maybePreloadNextItem();
+      mainHandler.postDelayed(this, PRELOAD_CHECK_INTERVAL_MS);
+    }
+  };
+
+  // Offline license variables. drmContentUri is only set when the content can use one.
+  protected boolean persistLicenses = true;
+  protected UUID drmSchemeUuid;
+  protected String drmLicenseUrl;
+  protected String[] drmKeyRequestProperties;
+  protected Uri drmContentUri;
+  protected boolean offlineLicenseRestored;
+  protected boolean offlineLicenseRequested;
+
+  // DRM setup metrics
+  protected long lastDrmSetupMs = C.TIME_UNSET;
+  protected int mediaDrmCreateCount = 0;
+  protected int mediaDrmReuseCount = 0;
+
+  // Async build variables
+  private static ExecutorService buildExecutor;
+  protected boolean asyncBuild = false;
+  private int buildGeneration;
+  private FutureTask<SimpleExoPlayer> pendingBuild;
+
+  // Track selection variables
+  protected final AbrAlgorithmRegistry abrAlgorithms = AbrAlgorithmRegistry.createDefault();
+
   // HTTP and DataSource variables
   protected final static String USER_AGENT = SimpleExoPlayerManager.class.getSimpleName();
   protected static final CookieManager DEFAULT_COOKIE_MANAGER;
   protected DataSource.Factory mediaDataSourceFactory;
+  protected MediaSourceFactoryRegistry mediaSourceFactories;
+  protected boolean cacheFallbackActive;
 
   static {
     DEFAULT_COOKIE_MANAGER = new CookieManager();
@@ -168,6 +263,61 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
     return player;
   }
 
+  /**
+   * Enables lazy playlists for {@link #ACTION_VIEW_LIST}, where only a window of items around the
+   * current one is built and prepared. Takes effect the next time the player is built.
+   */
+  public void setLazyPlaylist(boolean lazyPlaylist) {
+    this.lazyPlaylist = lazyPlaylist;
+  }
+
+  /**
+   * Configures preloading for {@link #ACTION_VIEW_LIST}. Once the current item has less than
+   * {@code lookaheadMs} left, up to {@code byteBudget} bytes of the next item are fetched through
+   * {@link #mediaDataSourceFactory}. A budget of 0 disables preloading.
+   */
+  public void setPreload(long lookaheadMs, long byteBudget) {
+    preloadLookaheadMs = lookaheadMs;
+    preloadByteBudget = byteBudget;
+  }
+
+  /**
+   * Enables persisting DRM licenses for single item protected content, so that replays restore
+   * keys from an offline license instead of requesting a new one. Enabled by default.
+   */
+  public void setPersistLicenses(boolean persistLicenses) {
+    this.persistLicenses = persistLicenses;
+  }
+
+  /*** Time the last player build spent setting up DRM, or {@link C#TIME_UNSET}. */
+  public long getLastDrmSetupMs() {
+    return lastDrmSetupMs;
+  }
+
+  /*** Number of times a new {@link FrameworkMediaDrm} had to be opened. */
+  public int getMediaDrmCreateCount() {
+    return mediaDrmCreateCount;
+  }
+
+  /*** Number of player builds that reused the existing {@link FrameworkMediaDrm}. */
+  public int getMediaDrmReuseCount() {
+    return mediaDrmReuseCount;
+  }
+
+  /**
+   * Makes {@link #initializePlayer()} build new players with {@link #initializePlayerAsync()}, so
+   * that DRM setup and media source construction don't block the main thread.
+   */
+  public void setAsyncBuild(boolean asyncBuild) {
+    this.asyncBuild = asyncBuild;
+  }
+
+  /*** Sets how many items before and after the current one a lazy playlist keeps materialized. */
+  public void setLazyPlaylistWindow(int itemsBehind, int itemsAhead) {
+    lazyPlaylistItemsBehind = itemsBehind;
+    lazyPlaylistItemsAhead = itemsAhead;
+  }
+
   // Activity lifecycle
   public boolean dispatchKeyEvent(KeyEvent event) {
     // See whether the player view wants to handle media or DPAD keys events.
@@ -210,49 +360,210 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
   // Internal methods
   @Override
   public void initializePlayer() {
+    if (managerState == STATE_BUILDING) {
+      return;
+    }
+    if (player != null && preparedIntent != getIntent()) {
+      // The intent was replaced without onNewIntent(), so the player plays the wrong content.
+      releasePlayer();
+    }
+    if (resumeRetainedPlayer()) {
+      updateButtonVisibilities();
+      return;
+    }
+    if (isPrepared()) {
+      // Nothing changed. Re-preparing would reset the media period and drop buffered data.
+      avoidedPrepareCount++;
+      updateButtonVisibilities();
+      return;
+    }
+    if (player == null && asyncBuild) {
+      initializePlayerAsync();
+      return;
+    }
     if (player == null) {
-      buildPlayer();
+      managerState = STATE_BUILDING;
+      try {
+        buildPlayer();
+      } finally {
+        // A build that throws mustn't leave every later initializePlayer() call returning early.
+        managerState = STATE_IDLE;
+      }
+      if (player != null) {
+        onPlayerBuilt();
+      }
     }
     if (player != null) {
-      boolean haveStartPosition = startWindow != C.INDEX_UNSET;
-      if (haveStartPosition) {
-        player.seekTo(startWindow, startPosition);
-      }
-      player.prepare(mediaSource, !haveStartPosition, false);
+      preparePlayer();
     }
     updateButtonVisibilities();
   }
 
-  protected void buildPlayer() {
-    Intent intent = getIntent();
+  /**
+   * Returns whether the player is prepared with the current media source and still holds it. A
+   * player that stopped or failed is back in {@link Player#STATE_IDLE} and has to be re-prepared.
+   */
+  protected boolean isPrepared() {
+    return player != null
+        && managerState == STATE_PREPARED
+        && preparedMediaSource == mediaSource
+        && player.getPlaybackState() != Player.STATE_IDLE;
+  }
 
-    // initialize arguments
-    String action = intent.getAction();
-    Uri[] uris;
-    String[] extensions;
-    if (ACTION_VIEW.equals(action)) {
-      uris = new Uri[]{intent.getData()};
-      extensions = new String[]{intent.getStringExtra(EXTENSION_EXTRA)};
-    } else if (ACTION_VIEW_LIST.equals(action)) {
-      String[] uriStrings = intent.getStringArrayExtra(URI_LIST_EXTRA);
-      uris = new Uri[uriStrings.length];
-      for (int i = 0; i < uriStrings.length; i++) {
-        uris[i] = Uri.parse(uriStrings[i]);
+  /**
+   * Like {@link #initializePlayer()}, but if a new player has to be built, the work that doesn't
+   * need the main thread runs on {@link #getBuildExecutor()}. The player is then created, attached
+   * and prepared on the main thread. Errors are delivered to the {@link PlayerManager.EventListener} on the main
+   * thread. The returned future completes with the prepared player, or null if the build failed or
+   * the player was released in the meantime.
+   */
+  public Future<SimpleExoPlayer> initializePlayerAsync() {
+    if (pendingBuild != null) {
+      return pendingBuild;
+    }
+    if (player != null) {
+      initializePlayer();
+      if (pendingBuild != null) {
+        return pendingBuild;
       }
-      extensions = intent.getStringArrayExtra(EXTENSION_LIST_EXTRA);
-      if (extensions == null) {
-        extensions = new String[uriStrings.length];
+      FutureTask<SimpleExoPlayer> result = new FutureTask<>(new Callable<SimpleExoPlayer>() {
+        @Override
+        public SimpleExoPlayer call() {
+          return player;
+        }
+      });
+      result.run();
+      return result;
+    }
+
+    managerState = STATE_BUILDING;
+    final int generation = ++buildGeneration;
+    final Intent intent = getIntent();
+    final int startWindow = this.startWindow;
+    startupTimer.start();
+    qoeMetrics.reset();
+    final PlayerComponents[] builtComponents = new PlayerComponents[1];
+    final FutureTask<SimpleExoPlayer> finishBuild =
+        new FutureTask<>(new Callable<SimpleExoPlayer>() {
+          @Override
+          public SimpleExoPlayer call() {
+            return finishAsyncBuild(generation, builtComponents[0]);
+          }
+        });
+    pendingBuild = finishBuild;
+    getBuildExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        PlayerComponents components;
+        try {
+          components = buildPlayerComponents(intent, startWindow);
+        } catch (RuntimeException e) {
+          components = new PlayerComponents();
+          components.setError(e.getMessage(), e);
+        }
+        builtComponents[0] = components;
+        mainHandler.post(finishBuild);
       }
+    });
+    return finishBuild;
+  }
+
+  /**
+   * Creates and prepares the player of an async build, or reports why the build failed. Called on
+   * the main thread.
+   */
+  @Nullable
+  private SimpleExoPlayer finishAsyncBuild(int generation, PlayerComponents components) {
+    if (generation != buildGeneration) {
+      // Released, or superseded by another build, while the components were being built. Nothing
+      // of the build has been applied, and its errors are no longer of interest.
+      return null;
+    }
+    applyBuildPhases(components);
+    pendingBuild = null;
+    managerState = STATE_IDLE;
+    if (components.error != null) {
+      onError(components.errorMessage, components.error);
+      return null;
+    }
+    createPlayer(components);
+    onPlayerBuilt();
+    preparePlayer();
+    updateButtonVisibilities();
+    return player;
+  }
+
+  /**
+   * Copies the build phases timed in {@code components} into {@link #startupTimer}. Must be called
+   * on the main thread, and only for a build that is still current.
+   */
+  protected void applyBuildPhases(PlayerComponents components) {
+    for (int phase = 0; phase < StartupTimingReport.PHASE_COUNT; phase++) {
+      long endMs = components.phaseEndMs[phase];
+      if (endMs != C.TIME_UNSET) {
+        startupTimer.recordPhase(phase, components.phaseStartMs[phase], endMs);
+      }
+    }
+  }
+
+  @Override
+  protected boolean isBuilding() {
+    return pendingBuild != null;
+  }
+
+  /*** Counts a cold resume if the new player replaces one that was released. */
+  private void onPlayerBuilt() {
+    if (playerReleased) {
+      coldResumeCount++;
+      playerReleased = false;
+    }
+  }
+
+  /*** Returns the executor that async builds run on. Shared by all managers by default. */
+  protected Executor getBuildExecutor() {
+    synchronized (SimpleExoPlayerManager.class) {
+      if (buildExecutor == null) {
+        buildExecutor = Executors.newSingleThreadExecutor();
+      }
+      return buildExecutor;
+    }
+  }
+
+  protected void buildPlayer() {
+    startupTimer.start();
+    qoeMetrics.reset();
+    PlayerComponents components = buildPlayerComponents(getIntent(), startWindow);
+    applyBuildPhases(components);
+    if (components.error != null) {
+      onError(components.errorMessage, components.error);
     } else {
-      onError(getContext().getString(R.string.unexpected_intent_action, action),
-          new IllegalStateException(
-              getContext().getString(R.string.unexpected_intent_action, action)));
-      return;
+      createPlayer(components);
     }
+  }
+
+  /**
+   * Builds everything the player for {@code intent} needs that doesn't touch the UI: the DRM
+   * session manager, the track selector, the renderers factory, the load control and the media
+   * source, with the playlist built around {@code startWindow}. Doesn't need the main thread, and
+   * doesn't change the manager's state, which {@link #createPlayer(PlayerComponents)} updates from
+   * the returned components. On failure, the returned components only hold the error.
+   */
+  protected PlayerComponents buildPlayerComponents(Intent intent, int startWindow) {
+    PlayerComponents components = new PlayerComponents();
+    components.startWindow = startWindow;
+
+    // initialize arguments
+    if (!parseIntent(intent, components)) {
+      return components;
+    }
+    Uri[] uris = components.playlistUris;
 
     // initialize drm
     DefaultDrmSessionManager<FrameworkMediaCrypto> drmSessionManager = null;
-    if (intent.hasExtra(DRM_SCHEME_EXTRA) || intent.hasExtra(DRM_SCHEME_UUID_EXTRA)) {
+    String drmScheme = getDrmScheme(intent);
+    if (drmScheme != null) {
+      long drmSetupStartMs = SystemClock.elapsedRealtime();
+      components.beginPhase(StartupTimingReport.PHASE_DRM_SESSION_BUILD);
       int errorStringId = R.string.error_drm_unknown;
       if (Util.SDK_INT < 18) {
         errorStringId = R.string.error_drm_not_supported;
@@ -262,12 +573,17 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
           String[] keyRequestPropertiesArray =
               intent.getStringArrayExtra(DRM_KEY_REQUEST_PROPERTIES_EXTRA);
           boolean multiSession = intent.getBooleanExtra(DRM_MULTI_SESSION_EXTRA, false);
-          String drmSchemeExtra =
-              intent.hasExtra(DRM_SCHEME_EXTRA) ? DRM_SCHEME_EXTRA : DRM_SCHEME_UUID_EXTRA;
-          UUID drmSchemeUuid = Util.getDrmUuid(intent.getStringExtra(drmSchemeExtra));
+          UUID drmSchemeUuid = Util.getDrmUuid(drmScheme);
           if (drmSchemeUuid != null) {
             drmSessionManager = buildDrmSessionManagerV18(drmSchemeUuid, drmLicenseUrl,
                 keyRequestPropertiesArray, multiSession);
+            components.drmSchemeUuid = drmSchemeUuid;
+            components.drmLicenseUrl = drmLicenseUrl;
+            components.drmKeyRequestProperties = keyRequestPropertiesArray;
+            if (persistLicenses && !multiSession && uris.length == 1) {
+              components.drmContentUri = uris[0];
+              restoreOfflineLicense(drmSessionManager, components);
+            }
           }
         } catch (UnsupportedDrmException e) {
           errorStringId = e.reason == UnsupportedDrmException.REASON_UNSUPPORTED_SCHEME
@@ -277,70 +593,140 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
         }
       }
       if (drmSessionManager == null) {
-        onError(getContext().getString(errorStringId),
-            new IllegalStateException(getContext().getString(errorStringId)));
-        return;
+        components.setError(getContext().getString(errorStringId));
+        return components;
       }
+      components.drmSetupMs = SystemClock.elapsedRealtime() - drmSetupStartMs;
+      components.endPhase(StartupTimingReport.PHASE_DRM_SESSION_BUILD);
     }
 
     // initialize track selection
-    TrackSelection.Factory trackSelectionFactory;
-    String abrAlgorithm = intent.getStringExtra(ABR_ALGORITHM_EXTRA);
-    if (abrAlgorithm == null || ABR_ALGORITHM_DEFAULT.equals(abrAlgorithm)) {
-      trackSelectionFactory = new AdaptiveTrackSelection.Factory();
-    } else if (ABR_ALGORITHM_RANDOM.equals(abrAlgorithm)) {
-      trackSelectionFactory = new RandomTrackSelection.Factory();
-    } else {
-      onError(getContext().getString(R.string.error_unrecognized_abr_algorithm),
-          new IllegalStateException(
-              getContext().getString(R.string.error_unrecognized_abr_algorithm)));
-      return;
+    TrackSelection.Factory trackSelectionFactory =
+        getAbrAlgorithmRegistry().createTrackSelectionFactory(getAbrAlgorithm(intent));
+    if (trackSelectionFactory == null) {
+      components.setError(getContext().getString(R.string.error_unrecognized_abr_algorithm));
+      return components;
     }
 
-    @DefaultRenderersFactory.ExtensionRendererMode int extensionRendererMode =
-        DefaultRenderersFactory.EXTENSION_RENDERER_MODE_OFF;
-    if (intent.hasExtra(PREFER_EXTENSION_DECODERS_EXTRA)) {
-      boolean preferExtensionDecoders =
-          intent.getBooleanExtra(PREFER_EXTENSION_DECODERS_EXTRA, false);
-      extensionRendererMode =
-          preferExtensionDecoders ? DefaultRenderersFactory.EXTENSION_RENDERER_MODE_PREFER
-              : DefaultRenderersFactory.EXTENSION_RENDERER_MODE_ON;
-    }
-
-    DefaultRenderersFactory renderersFactory = new DefaultRenderersFactory(getContext());
-    renderersFactory.setExtensionRendererMode(extensionRendererMode);
+    components.drmSessionManager = drmSessionManager;
+    components.renderersFactory = new DefaultRenderersFactory(getContext());
+    components.renderersFactory.setExtensionRendererMode(getExtensionRendererMode(intent));
+    components.trackSelector = new DefaultTrackSelector(trackSelectionFactory);
+    components.trackSelector.setParameters(trackSelectorParameters);
+    components.loadControl = new SuspendableLoadControl(getLoadControl());
+    components.bandwidthMeter = getBandwidthMeter();
+    buildPlaylistMediaSource(components);
+    return components;
+  }
 
-    trackSelector = new DefaultTrackSelector(trackSelectionFactory);
-    trackSelector.setParameters(trackSelectorParameters);
+  /**
+   * Creates the player from {@code components}, attaches it to the view and sets up preloading and
+   * ads. Must be called on the main thread.
+   */
+  protected void createPlayer(PlayerComponents components) {
+    playlistUris = components.playlistUris;
+    playlistExtensions = components.playlistExtensions;
+    drmSchemeUuid = components.drmSchemeUuid;
+    drmLicenseUrl = components.drmLicenseUrl;
+    drmKeyRequestProperties = components.drmKeyRequestProperties;
+    drmContentUri = components.drmContentUri;
+    offlineLicenseRestored = components.offlineLicenseRestored;
+    offlineLicenseRequested = false;
+    lastDrmSetupMs = components.drmSetupMs;
+    trackSelector = components.trackSelector;
     lastSeenTrackGroupArray = null;
+    loadControl = components.loadControl;
+    mediaSource = components.mediaSource;
+    playlist = components.playlist;
 
-    player = ExoPlayerFactory.newSimpleInstance(getContext(), renderersFactory, trackSelector,
-        getLoadControl(), drmSessionManager);
+    // The player is bound to the looper of the thread that creates it.
+    startupTimer.beginPhase(StartupTimingReport.PHASE_PLAYER_CREATION);
+    player = ExoPlayerFactory.newSimpleInstance(getContext(), components.renderersFactory,
+        trackSelector, loadControl, components.drmSessionManager, components.bandwidthMeter);
+    startupTimer.endPhase(StartupTimingReport.PHASE_PLAYER_CREATION);
     player.addListener(this);
     player.setPlayWhenReady(startAutoPlay);
-    player.addAnalyticsListener(new EventLogger(trackSelector));
-    if (playerView != null) {
-      if (getErrorMessageProvider() != null) {
-        playerView.setErrorMessageProvider(getErrorMessageProvider());
+    if (debug()) {
+      player.addAnalyticsListener(new EventLogger(trackSelector));
+    }
+    player.addAnalyticsListener(qoeMetrics);
+    player.addAnalyticsListener(flightRecorder);
+    player.addAnalyticsListener(startupTimer);
+    attachPlayerView();
+
+    startPlaylistPreload();
+    setUpAdsMediaSource();
+  }
+
+  /**
+   * Reads the uris and extensions to play from {@code intent} into {@code components}. Returns
+   * false, after setting the error of {@code components}, if the action isn't supported.
+   */
+  protected boolean parseIntent(Intent intent, PlayerComponents components) {
+    components.beginPhase(StartupTimingReport.PHASE_INTENT_PARSING);
+    String action = intent.getAction();
+    Uri[] uris;
+    String[] extensions;
+    if (ACTION_VIEW.equals(action)) {
+      uris = new Uri[]{intent.getData()};
+      extensions = new String[]{intent.getStringExtra(EXTENSION_EXTRA)};
+    } else if (ACTION_VIEW_LIST.equals(action)) {
+      String[] uriStrings = intent.getStringArrayExtra(URI_LIST_EXTRA);
+      uris = new Uri[uriStrings.length];
+      for (int i = 0; i < uriStrings.length; i++) {
+        uris[i] = Uri.parse(uriStrings[i]);
       }
-      playerView.setPlayer(player);
-      playerView.setPlaybackPreparer(this);
+      extensions = intent.getStringArrayExtra(EXTENSION_LIST_EXTRA);
+      if (extensions == null) {
+        extensions = new String[uriStrings.length];
+      }
+    } else {
+      components.setError(getContext().getString(R.string.unexpected_intent_action, action));
+      return false;
     }
-    if (debugTextView != null) {
-      debugViewHelper = new DebugTextViewHelper(player, debugTextView);
-      debugViewHelper.start();
+    components.playlistUris = uris;
+    components.playlistExtensions = extensions;
+    components.endPhase(StartupTimingReport.PHASE_INTENT_PARSING);
+    return true;
+  }
+
+  /*** Builds the media source for the playlist of {@code components} into {@code components}. */
+  protected void buildPlaylistMediaSource(PlayerComponents components) {
+    Uri[] uris = components.playlistUris;
+    String[] extensions = components.playlistExtensions;
+    int startWindow = components.startWindow;
+    components.beginPhase(StartupTimingReport.PHASE_MEDIA_SOURCE_CONSTRUCTION);
+    if (lazyPlaylist && uris.length > 1) {
+      components.playlist = new LazyPlaylist(this, uris, extensions, lazyPlaylistItemsBehind,
+          lazyPlaylistItemsAhead);
+      components.playlist.updateWindow(startWindow != C.INDEX_UNSET ? startWindow : 0);
+      components.mediaSource = components.playlist.getMediaSource();
+    } else {
+      MediaSource[] mediaSources = new MediaSource[uris.length];
+      for (int i = 0; i < uris.length; i++) {
+        mediaSources[i] = buildMediaSource(uris[i], extensions[i]);
+      }
+      components.mediaSource =
+          mediaSources.length == 1 ? mediaSources[0] : new ConcatenatingMediaSource(mediaSources);
     }
+    components.endPhase(StartupTimingReport.PHASE_MEDIA_SOURCE_CONSTRUCTION);
+  }
 
-    MediaSource[] mediaSources = new MediaSource[uris.length];
-    for (int i = 0; i < uris.length; i++) {
-      mediaSources[i] = buildMediaSource(uris[i], extensions[i]);
+  /*** Starts preloading upcoming items of a playlist. Must be called on the main thread. */
+  protected void startPlaylistPreload() {
+    if (playlistUris.length > 1 && preloadByteBudget > 0) {
+      preloader = new PlaylistPreloader(mediaDataSourceFactory, buildManifestDataSourceFactory(),
+          preloadByteBudget);
+      preloadedWindowIndex = C.INDEX_UNSET;
+      startPreloadChecks();
     }
-    mediaSource =
-        mediaSources.length == 1 ? mediaSources[0] : new ConcatenatingMediaSource(mediaSources);
+  }
 
-    // initialize AdsLoader
-    String adTagUriString = intent.getStringExtra(AD_TAG_URI_EXTRA);
+  /*** Wraps {@link #mediaSource} for the intent's ad tag, if any. Must be called on the main thread. */
+  protected void setUpAdsMediaSource() {
+    String adTagUriString = getIntent().getStringExtra(AD_TAG_URI_EXTRA);
     if (adTagUriString != null) {
+      startupTimer.beginPhase(StartupTimingReport.PHASE_ADS_LOADER_SETUP);
       Uri adTagUri = Uri.parse(adTagUriString);
       if (!adTagUri.equals(loadedAdTagUri)) {
         releaseAdsLoader();
@@ -353,13 +739,130 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
         onError(getContext().getString(R.string.ima_not_loaded),
             new IllegalStateException(getContext().getString(R.string.ima_not_loaded)));
       }
+      startupTimer.endPhase(StartupTimingReport.PHASE_ADS_LOADER_SETUP);
     } else {
       releaseAdsLoader();
     }
   }
 
+  /*** Prepares the player with {@link #mediaSource}, from the start position if there is one. */
+  protected void preparePlayer() {
+    boolean haveStartPosition = startWindow != C.INDEX_UNSET;
+    if (haveStartPosition) {
+      player.seekTo(startWindow, startPosition);
+    }
+    startupTimer.beginPhase(StartupTimingReport.PHASE_PREPARE);
+    player.prepare(mediaSource, !haveStartPosition, false);
+    startupTimer.endPhase(StartupTimingReport.PHASE_PREPARE);
+    preparedIntent = getIntent();
+    preparedMediaSource = mediaSource;
+    managerState = STATE_PREPARED;
+  }
+
+  /**
+   * Returns whether the player built for the current intent can play {@code intent} as is. That is
+   * the case when DRM, ABR algorithm and extension decoder settings are the same, and no offline
+   * license has to be swapped in or out.
+   */
+  @Override
+  protected boolean canSwitchMediaSource(Intent intent) {
+    Intent currentIntent = preparedIntent;
+    if (player == null || currentIntent == null || managerState != STATE_PREPARED) {
+      return false;
+    }
+    String action = intent.getAction();
+    if (!ACTION_VIEW.equals(action) && !ACTION_VIEW_LIST.equals(action)) {
+      return false;
+    }
+    if (!Util.areEqual(getDrmScheme(currentIntent), getDrmScheme(intent))
+        || !Util.areEqual(currentIntent.getStringExtra(DRM_LICENSE_URL_EXTRA),
+        intent.getStringExtra(DRM_LICENSE_URL_EXTRA))
+        || !Arrays.equals(currentIntent.getStringArrayExtra(DRM_KEY_REQUEST_PROPERTIES_EXTRA),
+        intent.getStringArrayExtra(DRM_KEY_REQUEST_PROPERTIES_EXTRA))
+        || currentIntent.getBooleanExtra(DRM_MULTI_SESSION_EXTRA, false)
+        != intent.getBooleanExtra(DRM_MULTI_SESSION_EXTRA, false)
+        || !getAbrAlgorithm(currentIntent).equals(getAbrAlgorithm(intent))
+        || getExtensionRendererMode(currentIntent) != getExtensionRendererMode(intent)) {
+      return false;
+    }
+    // The session manager is switched into offline mode when a license is restored.
+    return !offlineLicenseRestored
+        && !(drmSchemeUuid != null && persistLicenses && ACTION_VIEW.equals(action)
+        && getOfflineLicenseStore().getKeySetId(drmSchemeUuid, intent.getData()) != null);
+  }
+
+  /*** Swaps in the media source for the current intent, keeping the player and its renderers. */
+  @Override
+  protected boolean switchMediaSource() {
+    restoreNetworkDataSource();
+    startupTimer.finish();
+    startupTimer.start();
+    qoeMetrics.reset();
+    PlayerComponents components = new PlayerComponents();
+    components.startWindow = startWindow;
+    if (!parseIntent(getIntent(), components)) {
+      onError(components.errorMessage, components.error);
+      releasePlayer();
+      return false;
+    }
+    playlistUris = components.playlistUris;
+    playlistExtensions = components.playlistExtensions;
+    stopPreloadChecks();
+    if (preloader != null) {
+      preloader.release();
+      preloader = null;
+    }
+    lastSeenTrackGroupArray = null;
+    offlineLicenseRequested = false;
+    drmContentUri = drmSchemeUuid != null && persistLicenses && playlistUris.length == 1
+        && !getIntent().getBooleanExtra(DRM_MULTI_SESSION_EXTRA, false) ? playlistUris[0] : null;
+    buildPlaylistMediaSource(components);
+    applyBuildPhases(components);
+    mediaSource = components.mediaSource;
+    playlist = components.playlist;
+    startPlaylistPreload();
+    setUpAdsMediaSource();
+    preparePlayer();
+    // Apply the auto play state reset by onNewIntent(), as a rebuilt player would.
+    player.setPlayWhenReady(startAutoPlay);
+    return true;
+  }
+
+  @Nullable
+  protected static String getDrmScheme(Intent intent) {
+    return intent.hasExtra(DRM_SCHEME_EXTRA) ? intent.getStringExtra(DRM_SCHEME_EXTRA)
+        : intent.getStringExtra(DRM_SCHEME_UUID_EXTRA);
+  }
+
+  protected static String getAbrAlgorithm(Intent intent) {
+    String abrAlgorithm = intent.getStringExtra(ABR_ALGORITHM_EXTRA);
+    return abrAlgorithm == null ? ABR_ALGORITHM_DEFAULT : abrAlgorithm;
+  }
+
+  @DefaultRenderersFactory.ExtensionRendererMode
+  protected static int getExtensionRendererMode(Intent intent) {
+    if (!intent.hasExtra(PREFER_EXTENSION_DECODERS_EXTRA)) {
+      return DefaultRenderersFactory.EXTENSION_RENDERER_MODE_OFF;
+    }
+    return intent.getBooleanExtra(PREFER_EXTENSION_DECODERS_EXTRA, false)
+        ? DefaultRenderersFactory.EXTENSION_RENDERER_MODE_PREFER
+        : DefaultRenderersFactory.EXTENSION_RENDERER_MODE_ON;
+  }
+
   @Override
   public void releasePlayer() {
+    // Cancels any async build in progress.
+    buildGeneration++;
+    if (pendingBuild != null) {
+      pendingBuild = null;
+      managerState = STATE_RELEASED;
+    }
+    clearRetainedPlayer();
+    stopPreloadChecks();
+    if (preloader != null) {
+      preloader.release();
+      preloader = null;
+    }
     if (player != null) {
       updateTrackSelectorParameters();
       updateStartPosition();
@@ -369,36 +872,146 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
       debugViewHelper = null;
       player.release();
       player = null;
+      playerReleased = true;
+      restoreNetworkDataSource();
+      preparedIntent = null;
+      preparedMediaSource = null;
+      managerState = STATE_RELEASED;
+      // Sessions released before they got ready are reported with what they reached.
+      startupTimer.finish();
       mediaSource = null;
+      playlist = null;
+      loadControl = null;
       trackSelector = null;
     }
     if (adsLoader != null) {
       adsLoader.setPlayer(null);
     }
-    releaseMediaDrm();
+    // The media drm is kept for the next player. See acquireMediaDrm().
   }
 
-  // User controls
   @Override
-  protected void updateButtonVisibilities() {
-    if (debugRootView != null) {
-      debugRootView.removeAllViews();
+  protected void detachPlayer() {
+    stopPreloadChecks();
+    player.setPlayWhenReady(false);
+    if (debugViewHelper != null) {
+      debugViewHelper.stop();
+      debugViewHelper = null;
+    }
+    if (playerView != null) {
+      playerView.setPlayer(null);
     }
+    loadControl.setSuspended(true);
+  }
 
-    if (player == null) {
+  @Override
+  protected void attachPlayer() {
+    loadControl.setSuspended(false);
+    attachPlayerView();
+    player.setPlayWhenReady(startAutoPlay);
+    startPreloadChecks();
+  }
+
+  protected void attachPlayerView() {
+    if (playerView != null) {
+      if (getErrorMessageProvider() != null) {
+        playerView.setErrorMessageProvider(getErrorMessageProvider());
+      }
+      playerView.setPlayer(player);
+      playerView.setPlaybackPreparer(this);
+    }
+    if (debugTextView != null) {
+      debugViewHelper = new DebugTextViewHelper(player, debugTextView);
+      debugViewHelper.start();
+    }
+  }
+
+  // Offline license methods
+  protected OfflineLicenseStore getOfflineLicenseStore() {
+    return OfflineLicenseStore.getInstance(getContext());
+  }
+
+  /**
+   * Switches the DRM session manager to a stored offline license for the content of {@code
+   * components}, if there is one.
+   */
+  protected void restoreOfflineLicense(
+      DefaultDrmSessionManager<FrameworkMediaCrypto> drmSessionManager,
+      PlayerComponents components) {
+    byte[] keySetId = getOfflineLicenseStore()
+        .getKeySetId(components.drmSchemeUuid, components.drmContentUri);
+    if (keySetId != null) {
+      drmSessionManager.setMode(DefaultDrmSessionManager.MODE_PLAYBACK, keySetId);
+      components.offlineLicenseRestored = true;
+    }
+  }
+
+  /*** Fetches and stores an offline license once the content's DRM init data is known. */
+  protected void maybeRequestOfflineLicense(TrackGroupArray trackGroups) {
+    if (drmContentUri == null || offlineLicenseRestored || offlineLicenseRequested) {
       return;
     }
+    for (int i = 0; i < trackGroups.length; i++) {
+      TrackGroup trackGroup = trackGroups.get(i);
+      for (int j = 0; j < trackGroup.length; j++) {
+        DrmInitData drmInitData = trackGroup.getFormat(j).drmInitData;
+        if (drmInitData != null) {
+          offlineLicenseRequested = true;
+          getOfflineLicenseStore().downloadLicenseAsync(drmSchemeUuid, drmContentUri, drmInitData,
+              buildMediaDrmCallback(drmLicenseUrl, drmKeyRequestProperties));
+          return;
+        }
+      }
+    }
+  }
+
+  // Preload methods
+  protected void startPreloadChecks() {
+    if (preloader != null) {
+      mainHandler.removeCallbacks(preloadCheck);
+      mainHandler.post(preloadCheck);
+    }
+  }
 
-    MappedTrackInfo mappedTrackInfo = trackSelector.getCurrentMappedTrackInfo();
-    if (mappedTrackInfo == null) {
+  protected void stopPreloadChecks() {
+    mainHandler.removeCallbacks(preloadCheck);
+  }
+
+  /*** Preloads the next playlist item once the current one is within the lookahead of its end. */
+  protected void maybePreloadNextItem() {
+    if (player == null || preloader == null) {
       return;
     }
+    int nextWindowIndex = player.getNextWindowIndex();
+    if (nextWindowIndex == C.INDEX_UNSET || nextWindowIndex == preloadedWindowIndex
+        || nextWindowIndex >= playlistUris.length) {
+      return;
+    }
+    long durationMs = player.getDuration();
+    if (durationMs == C.TIME_UNSET
+        || durationMs - player.getCurrentPosition() > preloadLookaheadMs) {
+      return;
+    }
+    preloadedWindowIndex = nextWindowIndex;
+    preloader.preload(playlistUris[nextWindowIndex], playlistExtensions[nextWindowIndex]);
+  }
 
-    for (int i = 0; i < mappedTrackInfo.getRendererCount(); i++) {
-      TrackGroupArray trackGroups = mappedTrackInfo.getTrackGroups(i);
-      if (trackGroups.length != 0) {
-        Button button = new Button(getContext());
-        int label;
+  // User controls
+  @Override
+  protected void updateButtonVisibilities() {
+    TrackGroupArray trackGroups = player != null ? player.getCurrentTrackGroups() : null;
+    if (trackGroups == buttonTrackGroups) {
+      // Nothing about the tracks changed.
+      return;
+    }
+    buttonTrackGroups = trackGroups;
+
+    MappedTrackInfo mappedTrackInfo =
+        player != null ? trackSelector.getCurrentMappedTrackInfo() : null;
+    int rendererCount = mappedTrackInfo != null ? mappedTrackInfo.getRendererCount() : 0;
+    for (int i = 0; i < Math.max(rendererCount, trackButtons.length); i++) {
+      int label = 0;
+      if (i < rendererCount && mappedTrackInfo.getTrackGroups(i).length != 0) {
         switch (player.getRendererType(i)) {
           case C.TRACK_TYPE_AUDIO:
             label = R.string.exo_track_selection_title_audio;
@@ -410,15 +1023,50 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
             label = R.string.exo_track_selection_title_text;
             break;
           default:
-            continue;
+            break;
         }
-        button.setText(label);
-        button.setTag(i);
-        button.setOnClickListener(this);
-        if (debugRootView != null) {
-          debugRootView.addView(button);
+      }
+      updateTrackButton(i, label);
+    }
+  }
+
+  /*** Shows the button of a renderer with the given label, or hides it if the label is 0. */
+  private void updateTrackButton(int rendererIndex, int label) {
+    if (debugRootView == null) {
+      return;
+    }
+    if (rendererIndex >= trackButtons.length) {
+      if (label == 0) {
+        return;
+      }
+      trackButtons = Arrays.copyOf(trackButtons, rendererIndex + 1);
+      trackButtonLabels = Arrays.copyOf(trackButtonLabels, rendererIndex + 1);
+    }
+    Button button = trackButtons[rendererIndex];
+    if (button == null) {
+      if (label == 0) {
+        return;
+      }
+      button = new Button(getContext());
+      button.setTag(rendererIndex);
+      button.setOnClickListener(this);
+      // Keep the buttons in renderer order.
+      int childIndex = 0;
+      for (int i = 0; i < rendererIndex; i++) {
+        if (trackButtons[i] != null) {
+          childIndex++;
         }
       }
+      debugRootView.addView(button, childIndex);
+      trackButtons[rendererIndex] = button;
+    }
+    if (label != 0 && label != trackButtonLabels[rendererIndex]) {
+      button.setText(label);
+      trackButtonLabels[rendererIndex] = label;
+    }
+    int visibility = label != 0 ? View.VISIBLE : View.GONE;
+    if (button.getVisibility() != visibility) {
+      button.setVisibility(visibility);
     }
   }
 
@@ -436,6 +1084,14 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
   }
 
   // Player.DefaultEventListener
+  @Override
+  public void onPositionDiscontinuity(@Player.DiscontinuityReason int reason) {
+    super.onPositionDiscontinuity(reason);
+    if (playlist != null) {
+      playlist.updateWindow(player.getCurrentWindowIndex());
+    }
+  }
+
   @Override
   @SuppressWarnings("ReferenceEquality")
   public void onTracksChanged(TrackGroupArray trackGroups, TrackSelectionArray trackSelections) {
@@ -453,14 +1109,152 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
           onError(getContext().getString(R.string.error_unsupported_audio));
         }
       }
+      maybeRequestOfflineLicense(trackGroups);
+      recordDecoderUsage(trackSelections);
       lastSeenTrackGroupArray = trackGroups;
     }
   }
 
+  /**
+   * Re-prepares the existing player at the default position of the current window, which for live
+   * streams is the live edge. The player fails by stopping with its renderers reset, which has
+   * already released the decoders and DRM sessions, so those are set up again either way. What is
+   * saved over a rebuild is creating the player and its track selector, and the track selection
+   * parameters are kept.
+   */
+  @Override
+  protected void recoverBehindLiveWindow() {
+    if (player == null || mediaSource == null || mediaSource != preparedMediaSource) {
+      super.recoverBehindLiveWindow();
+      return;
+    }
+    player.seekToDefaultPosition();
+    player.prepare(mediaSource, /* resetPosition= */ false, /* resetState= */ false);
+    updateButtonVisibilities();
+  }
+
+  /**
+   * Rebuilds {@link #mediaSource} on top of {@link #buildFallbackDataSourceFactory()}, so that the
+   * next prepare plays what is cached or downloaded. The network is used again once the player is
+   * released or switches content.
+   */
+  @Override
+  protected boolean fallBackToCache() {
+    if (player == null || cacheFallbackActive || playlistUris == null) {
+      return false;
+    }
+    DataSource.Factory fallbackDataSourceFactory = buildFallbackDataSourceFactory();
+    if (fallbackDataSourceFactory == null) {
+      return false;
+    }
+    stopPreloadChecks();
+    if (preloader != null) {
+      preloader.release();
+      preloader = null;
+    }
+    setMediaDataSourceFactory(fallbackDataSourceFactory, /* cacheFallbackActive= */ true);
+    PlayerComponents components = new PlayerComponents();
+    components.playlistUris = playlistUris;
+    components.playlistExtensions = playlistExtensions;
+    components.startWindow = startWindow;
+    buildPlaylistMediaSource(components);
+    applyBuildPhases(components);
+    mediaSource = components.mediaSource;
+    playlist = components.playlist;
+    setUpAdsMediaSource();
+    return true;
+  }
+
+  protected void restoreNetworkDataSource() {
+    if (cacheFallbackActive) {
+      setMediaDataSourceFactory(buildDataSourceFactory(), /* cacheFallbackActive= */ false);
+    }
+  }
+
+  /**
+   * Switches media loads to {@code dataSourceFactory}, and drops the media source factories built
+   * on the previous one. Synchronized with {@link #getMediaSourceFactories()}.
+   */
+  private synchronized void setMediaDataSourceFactory(
+      DataSource.Factory dataSourceFactory, boolean cacheFallbackActive) {
+    mediaDataSourceFactory = dataSourceFactory;
+    this.cacheFallbackActive = cacheFallbackActive;
+    mediaSourceFactories = null;
+  }
+
+  public boolean isCacheFallbackActive() {
+    return cacheFallbackActive;
+  }
+
+  /**
+   * Returns a {@link DataSource.Factory} that reads only cached or downloaded media, used when
+   * network errors can't be recovered from. Returns null by default, which disables the fallback.
+   */
+  @Nullable
+  protected DataSource.Factory buildFallbackDataSourceFactory() {
+    return null;
+  }
+
+  /*** Makes sure the decoders of the selected formats are warmed up on the next process start. */
+  protected void recordDecoderUsage(TrackSelectionArray trackSelections) {
+    DecoderCapabilityCache decoderCapabilities = DecoderCapabilityCache.getInstance(getContext());
+    for (int i = 0; i < trackSelections.length; i++) {
+      TrackSelection trackSelection = trackSelections.get(i);
+      if (trackSelection == null) {
+        continue;
+      }
+      Format format = trackSelection.getSelectedFormat();
+      if (format.sampleMimeType != null && (MimeTypes.isVideo(format.sampleMimeType)
+          || MimeTypes.isAudio(format.sampleMimeType))) {
+        decoderCapabilities.addMimeType(format.sampleMimeType, /* secure= */ false);
+        if (format.drmInitData != null) {
+          // Whether the renderer needs a secure decoder depends on the session's MediaCrypto, which
+          // it doesn't expose. Protected content may also be played with an insecure decoder, so
+          // both are warmed up.
+          decoderCapabilities.addMimeType(format.sampleMimeType, /* secure= */ true);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onPlayerError(ExoPlaybackException e) {
+    if (offlineLicenseRestored && PlayerUtils.isDrmError(e)) {
+      // The stored license could not be restored. Forget it and fall back to a streaming license.
+      getOfflineLicenseStore().remove(drmSchemeUuid, drmContentUri);
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          releasePlayer();
+          initializePlayer();
+        }
+      });
+      return;
+    }
+    super.onPlayerError(e);
+  }
+
+  /**
+   * Returns the ABR algorithms that {@link #ABR_ALGORITHM_EXTRA} can name. Register additional
+   * algorithms here before the player is built.
+   */
+  public AbrAlgorithmRegistry getAbrAlgorithmRegistry() {
+    return abrAlgorithms;
+  }
+
   protected LoadControl getLoadControl() {
     return new DefaultLoadControl();
   }
 
+  /**
+   * Returns the {@link BandwidthMeter} used for adaptive track selection. By default every manager
+   * shares the process wide {@link PersistentBandwidthMeter}, so new sessions start from the last
+   * estimate measured on the current network type.
+   */
+  protected BandwidthMeter getBandwidthMeter() {
+    return PersistentBandwidthMeter.getInstance(getContext());
+  }
+
   protected ErrorMessageProvider<ExoPlaybackException> getErrorMessageProvider() {
     return null;
   }
@@ -485,10 +1279,49 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
   }
 
   @Override
-  @SuppressWarnings("unchecked")
   public MediaSource buildMediaSource(Uri uri, @Nullable String overrideExtension) {
-    return PlayerUtils.buildSimpleMediaSource(buildDataSourceFactory(), mediaDataSourceFactory, uri,
-        overrideExtension);
+    return getMediaSourceFactories().createMediaSource(uri, overrideExtension);
+  }
+
+  /**
+   * Returns this manager's media source factories, building them on first use. Synchronized, since
+   * media sources are built on the main thread, the build executor and, for lazy playlists, the
+   * playback thread.
+   */
+  protected synchronized MediaSourceFactoryRegistry getMediaSourceFactories() {
+    if (mediaSourceFactories == null) {
+      mediaSourceFactories =
+          new MediaSourceFactoryRegistry(mediaDataSourceFactory, buildManifestDataSourceFactory());
+    }
+    return mediaSourceFactories;
+  }
+
+  /**
+   * Returns the {@link DataSource.Factory} used to load manifests. By default manifests are read
+   * through the process wide {@link ManifestCache}, which never caches live manifests, on top of
+   * {@link #buildManifestUpstreamDataSourceFactory()}.
+   */
+  protected DataSource.Factory buildManifestDataSourceFactory() {
+    DataSource.Factory upstreamFactory =
+        cacheFallbackActive ? mediaDataSourceFactory : buildManifestUpstreamDataSourceFactory();
+    return new ManifestCacheDataSource.Factory(ManifestCache.getInstance(), upstreamFactory);
+  }
+
+  /**
+   * Returns the {@link DataSource.Factory} manifests are loaded from on a {@link ManifestCache}
+   * miss. Live manifests change on every refresh, so this must not go through a persistent cache
+   * that would serve them stale. Defaults to {@link #mediaDataSourceFactory}.
+   */
+  protected DataSource.Factory buildManifestUpstreamDataSourceFactory() {
+    return mediaDataSourceFactory;
+  }
+
+  public long getManifestCacheHitCount() {
+    return ManifestCache.getInstance().getHitCount();
+  }
+
+  public long getManifestCacheMissCount() {
+    return ManifestCache.getInstance().getMissCount();
   }
 
   /*** DRM Dependency methods */
@@ -496,6 +1329,31 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
   public DefaultDrmSessionManager<FrameworkMediaCrypto> buildDrmSessionManagerV18(
       UUID uuid, String licenseUrl, String[] keyRequestPropertiesArray, boolean multiSession)
       throws UnsupportedDrmException {
+    HttpMediaDrmCallback drmCallback = buildMediaDrmCallback(licenseUrl, keyRequestPropertiesArray);
+    return new DefaultDrmSessionManager<>(
+        uuid, acquireMediaDrm(uuid), drmCallback, null, multiSession);
+  }
+
+  /**
+   * Returns a {@link FrameworkMediaDrm} for {@code uuid}. Opening one is slow, so it is kept across
+   * player rebuilds and only replaced when the scheme changes. It is released by
+   * {@link #releaseMediaDrm()}, which {@link #onDestroy()} and {@link #onTrimMemory(int)} call.
+   */
+  protected synchronized FrameworkMediaDrm acquireMediaDrm(UUID uuid) throws UnsupportedDrmException {
+    if (mediaDrm != null && uuid.equals(mediaDrmUuid)) {
+      mediaDrmReuseCount++;
+      return mediaDrm;
+    }
+    releaseMediaDrm();
+    mediaDrm = FrameworkMediaDrm.newInstance(uuid);
+    mediaDrmUuid = uuid;
+    mediaDrmCreateCount++;
+    return mediaDrm;
+  }
+
+  /*** Returns a license callback for {@code licenseUrl} with the given key request properties. */
+  protected HttpMediaDrmCallback buildMediaDrmCallback(String licenseUrl,
+                                                       String[] keyRequestPropertiesArray) {
     HttpDataSource.Factory licenseDataSourceFactory = buildHttpDataSourceFactory();
     HttpMediaDrmCallback drmCallback = new HttpMediaDrmCallback(licenseUrl,
         licenseDataSourceFactory);
@@ -505,16 +1363,14 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
             keyRequestPropertiesArray[i + 1]);
       }
     }
-    releaseMediaDrm();
-    mediaDrm = FrameworkMediaDrm.newInstance(uuid);
-    return new DefaultDrmSessionManager<>(
-        uuid, mediaDrm, drmCallback, null, multiSession);
+    return drmCallback;
   }
 
-  public void releaseMediaDrm() {
+  public synchronized void releaseMediaDrm() {
     if (mediaDrm != null) {
       mediaDrm.release();
       mediaDrm = null;
+      mediaDrmUuid = null;
     }
   }
 
@@ -528,4 +1384,65 @@ public class SimpleExoPlayerManager<D> extends ExoPlayerManager<D>
   @Override
   public void releaseAdsLoader() {
   }
+
+  /**
+   * The parts of a player that {@link #buildPlayerComponents(Intent, int)} builds, and the state
+   * the manager takes over from them once the player is created on the main thread.
+   */
+  protected static class PlayerComponents {
+
+    public DefaultDrmSessionManager<FrameworkMediaCrypto> drmSessionManager;
+    public DefaultRenderersFactory renderersFactory;
+    public DefaultTrackSelector trackSelector;
+    public SuspendableLoadControl loadControl;
+    public BandwidthMeter bandwidthMeter;
+    public MediaSource mediaSource;
+    public LazyPlaylist playlist;
+
+    // Parsed intent.
+    public Uri[] playlistUris;
+    public String[] playlistExtensions;
+    public int startWindow = C.INDEX_UNSET;
+
+    // DRM and offline license state.
+    public UUID drmSchemeUuid;
+    public String drmLicenseUrl;
+    public String[] drmKeyRequestProperties;
+    public Uri drmContentUri;
+    public boolean offlineLicenseRestored;
+    public long drmSetupMs = C.TIME_UNSET;
+
+    // Why the build failed, reported on the main thread.
+    public String errorMessage;
+    public Exception error;
+
+    // Build phases, timed here rather than in the startup timer since the build may run off the
+    // main thread, and may be cancelled.
+    public final long[] phaseStartMs = new long[StartupTimingReport.PHASE_COUNT];
+    public final long[] phaseEndMs = new long[StartupTimingReport.PHASE_COUNT];
+
+    public PlayerComponents() {
+      Arrays.fill(phaseStartMs, C.TIME_UNSET);
+      Arrays.fill(phaseEndMs, C.TIME_UNSET);
+    }
+
+    public void setError(String message) {
+      setError(message, new IllegalStateException(message));
+    }
+
+    public void setError(String message, Exception error) {
+      this.errorMessage = message;
+      this.error = error;
+    }
+
+    public void beginPhase(int phase) {
+      phaseStartMs[phase] = SystemClock.elapsedRealtime();
+    }
+
+    public void endPhase(int phase) {
+      if (phaseStartMs[phase] != C.TIME_UNSET) {
+        phaseEndMs[phase] = SystemClock.elapsedRealtime();
+      }
+    }
+  }
 }
@@ -0,0 +1,80 @@
+package com.dfbarone.android.exoplayer2.manager;
+
+import com.google.android.exoplayer2.LoadControl;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.upstream.Allocator;
+
+/**
+ * A {@link LoadControl} that delegates to another one, but stops loading while suspended so that a
+ * retained player does not keep buffering in the background.
+ */
+public class SuspendableLoadControl implements LoadControl {
+
+  private final LoadControl loadControl;
+  private volatile boolean suspended;
+
+  public SuspendableLoadControl(LoadControl loadControl) {
+    this.loadControl = loadControl;
+  }
+
+  /*** Suspends or resumes loading. Suspending also trims unused allocations. */
+  public void setSuspended(boolean suspended) {
+    this.suspended = suspended;
+    if (suspended) {
+      loadControl.getAllocator().trim();
+    }
+  }
+
+  public boolean isSuspended() {
+    return suspended;
+  }
+
+  @Override
+  public void onPrepared() {
+    loadControl.onPrepared();
+  }
+
+  @Override
+  public void onTracksSelected(Renderer[] renderers, TrackGroupArray trackGroups,
+                               TrackSelectionArray trackSelections) {
+    loadControl.onTracksSelected(renderers, trackGroups, trackSelections);
+  }
+
+  @Override
+  public void onStopped() {
+    loadControl.onStopped();
+  }
+
+  @Override
+  public void onReleased() {
+    loadControl.onReleased();
+  }
+
+  @Override
+  public Allocator getAllocator() {
+    return loadControl.getAllocator();
+  }
+
+  @Override
+  public long getBackBufferDurationUs() {
+    return loadControl.getBackBufferDurationUs();
+  }
+
+  @Override
+  public boolean retainBackBufferFromKeyframe() {
+    return loadControl.retainBackBufferFromKeyframe();
+  }
+
+  @Override
+  public boolean shouldContinueLoading(long bufferedDurationUs, float playbackSpeed) {
+    return !suspended && loadControl.shouldContinueLoading(bufferedDurationUs, playbackSpeed);
+  }
+
+  @Override
+  public boolean shouldStartPlayback(long bufferedDurationUs, float playbackSpeed,
+                                     boolean rebuffering) {
+    return loadControl.shouldStartPlayback(bufferedDurationUs, playbackSpeed, rebuffering);
+  }
+}
@@ -0,0 +1,287 @@
+package com.dfbarone.android.exoplayer2.manager.analytics;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.analytics.DefaultAnalyticsListener;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A fixed capacity ring buffer of the most recent player events, for post-mortem of playback
+ * errors.
+ *
+ * <p>Each event is encoded as {@link #FIELD_COUNT} longs in a preallocated array, so recording
+ * neither locks nor allocates. Events are written from the player's callbacks on the application
+ * thread. {@link #snapshot()} may be called from any thread. It never blocks the writer and drops
+ * any entry that was overwritten while it was being copied.
+ */
+public final class FlightRecorder extends DefaultAnalyticsListener {
+
+  public static final int DEFAULT_CAPACITY = 256;
+
+  // Event types.
+  public static final int TYPE_STATE_CHANGED = 0;
+  public static final int TYPE_LOAD_STARTED = 1;
+  public static final int TYPE_LOAD_COMPLETED = 2;
+  public static final int TYPE_LOAD_CANCELED = 3;
+  public static final int TYPE_LOAD_ERROR = 4;
+  public static final int TYPE_FORMAT_CHANGED = 5;
+  public static final int TYPE_DISCONTINUITY = 6;
+  public static final int TYPE_SEEK_STARTED = 7;
+  public static final int TYPE_DROPPED_FRAMES = 8;
+  public static final int TYPE_DRM_ERROR = 9;
+  public static final int TYPE_PLAYER_ERROR = 10;
+
+  private static final String[] TYPE_NAMES = new String[] {
+      "state", "loadStarted", "loadCompleted", "loadCanceled", "loadError", "format",
+      "discontinuity", "seekStarted", "droppedFrames", "drmError", "playerError"};
+
+  // Fields of an encoded event.
+  private static final int FIELD_TIMESTAMP = 0;
+  private static final int FIELD_TYPE_AND_WINDOW = 1;
+  private static final int FIELD_POSITION = 2;
+  private static final int FIELD_ARG1 = 3;
+  private static final int FIELD_ARG2 = 4;
+  private static final int FIELD_COUNT = 5;
+
+  private final int capacity;
+  private final long[] events;
+  private volatile long writeCount;
+
+  public FlightRecorder() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public FlightRecorder(int capacity) {
+    this.capacity = capacity;
+    events = new long[capacity * FIELD_COUNT];
+  }
+
+  /**
+   * Records an event. Only one thread may record at a time, which the player guarantees for its
+   * callbacks.
+   */
+  public void record(long realtimeMs, int type, int windowIndex, long positionMs, long arg1,
+                     long arg2) {
+    long count = writeCount;
+    int offset = (int) (count % capacity) * FIELD_COUNT;
+    events[offset + FIELD_TIMESTAMP] = realtimeMs;
+    events[offset + FIELD_TYPE_AND_WINDOW] = ((long) type << 32) | (windowIndex & 0xFFFFFFFFL);
+    events[offset + FIELD_POSITION] = positionMs;
+    events[offset + FIELD_ARG1] = arg1;
+    events[offset + FIELD_ARG2] = arg2;
+    // The volatile write publishes the entry.
+    writeCount = count + 1;
+  }
+
+  /*** Returns the recorded events, oldest first. */
+  public Snapshot snapshot() {
+    long endCount = writeCount;
+    long[] copy = events.clone();
+    long overwrittenCount = writeCount;
+    return createSnapshot(SystemClock.elapsedRealtime(), copy, endCount, overwrittenCount);
+  }
+
+  /*** Writes a decoded snapshot of the recorded events to {@code file}. */
+  public void dump(File file) throws IOException {
+    Writer writer = new FileWriter(file);
+    try {
+      snapshot().writeTo(writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  // AnalyticsListener implementation
+
+  @Override
+  public void onPlayerStateChanged(EventTime eventTime, boolean playWhenReady, int playbackState) {
+    record(eventTime, TYPE_STATE_CHANGED, playbackState, playWhenReady ? 1 : 0);
+  }
+
+  @Override
+  public void onPositionDiscontinuity(EventTime eventTime, int reason) {
+    record(eventTime, TYPE_DISCONTINUITY, reason, 0);
+  }
+
+  @Override
+  public void onSeekStarted(EventTime eventTime) {
+    record(eventTime, TYPE_SEEK_STARTED, 0, 0);
+  }
+
+  @Override
+  public void onPlayerError(EventTime eventTime, ExoPlaybackException error) {
+    record(eventTime, TYPE_PLAYER_ERROR, error.type, 0);
+  }
+
+  @Override
+  public void onLoadStarted(EventTime eventTime,
+                            MediaSourceEventListener.LoadEventInfo loadEventInfo,
+                            MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    record(eventTime, TYPE_LOAD_STARTED, packLoadData(mediaLoadData), 0);
+  }
+
+  @Override
+  public void onLoadCompleted(EventTime eventTime,
+                              MediaSourceEventListener.LoadEventInfo loadEventInfo,
+                              MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    record(eventTime, TYPE_LOAD_COMPLETED, packLoadData(mediaLoadData), loadEventInfo.bytesLoaded);
+  }
+
+  @Override
+  public void onLoadCanceled(EventTime eventTime,
+                             MediaSourceEventListener.LoadEventInfo loadEventInfo,
+                             MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    record(eventTime, TYPE_LOAD_CANCELED, packLoadData(mediaLoadData), loadEventInfo.bytesLoaded);
+  }
+
+  @Override
+  public void onLoadError(EventTime eventTime,
+                          MediaSourceEventListener.LoadEventInfo loadEventInfo,
+                          MediaSourceEventListener.MediaLoadData mediaLoadData, IOException error,
+                          boolean wasCanceled) {
+    record(eventTime, TYPE_LOAD_ERROR, packLoadData(mediaLoadData), loadEventInfo.bytesLoaded);
+  }
+
+  @Override
+  public void onDownstreamFormatChanged(EventTime eventTime,
+                                        MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    Format format = mediaLoadData.trackFormat;
+    record(eventTime, TYPE_FORMAT_CHANGED, mediaLoadData.trackType,
+        format == null ? Format.NO_VALUE : format.bitrate);
+  }
+
+  @Override
+  public void onDroppedVideoFrames(EventTime eventTime, int droppedFrames, long elapsedMs) {
+    record(eventTime, TYPE_DROPPED_FRAMES, droppedFrames, elapsedMs);
+  }
+
+  @Override
+  public void onDrmSessionManagerError(EventTime eventTime, Exception error) {
+    record(eventTime, TYPE_DRM_ERROR, 0, 0);
+  }
+
+  // Internal methods
+
+  /**
+   * Orders the entries of {@code copy}, a copy of the ring taken after {@code endCount} entries
+   * were published and before {@code overwrittenCount} were.
+   */
+  /* package */ Snapshot createSnapshot(long nowMs, long[] copy, long endCount,
+                                        long overwrittenCount) {
+    // Entries written while copying may be torn, so they and the entries they replaced are dropped,
+    // as is the oldest remaining entry, which a write in progress may be replacing.
+    long startCount = Math.max(endCount - capacity, overwrittenCount - capacity + 1);
+    startCount = Math.max(startCount, 0);
+    int eventCount = (int) Math.max(endCount - startCount, 0);
+    long[] ordered = new long[eventCount * FIELD_COUNT];
+    for (int i = 0; i < eventCount; i++) {
+      int offset = (int) ((startCount + i) % capacity) * FIELD_COUNT;
+      System.arraycopy(copy, offset, ordered, i * FIELD_COUNT, FIELD_COUNT);
+    }
+    return new Snapshot(nowMs, ordered, eventCount);
+  }
+
+  /* package */ long[] copyEvents() {
+    return events.clone();
+  }
+
+  /* package */ long getWriteCount() {
+    return writeCount;
+  }
+
+  private void record(EventTime eventTime, int type, long arg1, long arg2) {
+    record(eventTime.realtimeMs, type, eventTime.windowIndex,
+        eventTime.currentPlaybackPositionMs, arg1, arg2);
+  }
+
+  private static long packLoadData(MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    return ((long) mediaLoadData.dataType << 32) | (mediaLoadData.trackType & 0xFFFFFFFFL);
+  }
+
+  /*** An immutable copy of the recorded events, oldest first. */
+  public static final class Snapshot {
+
+    public final long createdAtMs;
+    private final long[] events;
+    private final int eventCount;
+
+    private Snapshot(long createdAtMs, long[] events, int eventCount) {
+      this.createdAtMs = createdAtMs;
+      this.events = events;
+      this.eventCount = eventCount;
+    }
+
+    public int getEventCount() {
+      return eventCount;
+    }
+
+    public long getTimestampMs(int index) {
+      return events[index * FIELD_COUNT + FIELD_TIMESTAMP];
+    }
+
+    public int getType(int index) {
+      return (int) (events[index * FIELD_COUNT + FIELD_TYPE_AND_WINDOW] >>> 32);
+    }
+
+    public int getWindowIndex(int index) {
+      return (int) events[index * FIELD_COUNT + FIELD_TYPE_AND_WINDOW];
+    }
+
+    public long getPositionMs(int index) {
+      return events[index * FIELD_COUNT + FIELD_POSITION];
+    }
+
+    /**
+     * Returns the first argument: the playback state, discontinuity reason, player error type,
+     * dropped frame count or track type. For loads, the data type is in the upper and the track
+     * type in the lower 32 bits.
+     */
+    public long getArg1(int index) {
+      return events[index * FIELD_COUNT + FIELD_ARG1];
+    }
+
+    /**
+     * Returns the second argument: play when ready, bytes loaded, bitrate or the dropped frames
+     * elapsed time.
+     */
+    public long getArg2(int index) {
+      return events[index * FIELD_COUNT + FIELD_ARG2];
+    }
+
+    /*** Writes one line per event, with timestamps relative to the snapshot. */
+    public void writeTo(Writer writer) throws IOException {
+      for (int i = 0; i < eventCount; i++) {
+        writer.write(formatEvent(i));
+        writer.write('\n');
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < eventCount; i++) {
+        builder.append(formatEvent(i)).append('\n');
+      }
+      return builder.toString();
+    }
+
+    private String formatEvent(int index) {
+      int type = getType(index);
+      String typeName = type >= 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type]
+          : String.valueOf(type);
+      long arg1 = getArg1(index);
+      String arg1String = type >= TYPE_LOAD_STARTED && type <= TYPE_LOAD_ERROR
+          ? (arg1 >> 32) + "/" + (int) arg1 : String.valueOf(arg1);
+      return (getTimestampMs(index) - createdAtMs) + "ms " + typeName
+          + " window=" + getWindowIndex(index) + " pos=" + getPositionMs(index)
+          + " " + arg1String + " " + getArg2(index);
+    }
+  }
+}
@@ -0,0 +1,242 @@
+package com.dfbarone.android.exoplayer2.manager.analytics;
+
+import android.os.SystemClock;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.DefaultAnalyticsListener;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates quality of experience metrics for a playback session: join time, rebuffers, dropped
+ * frames, video bitrate switches, time weighted average video bitrate and bytes loaded.
+ *
+ * <p>Events only update primitive counters and fixed size histograms, so the collector can stay
+ * attached in release builds. Must be used on the application thread.
+ */
+public final class QoeMetricsCollector extends DefaultAnalyticsListener {
+
+  /*** Upper bounds, in milliseconds, of all but the last rebuffer duration bucket. */
+  public static final long[] REBUFFER_BUCKET_BOUNDS_MS =
+      new long[] {250, 500, 1000, 2000, 5000, 10000};
+  /*** Upper bounds, in bits per second, of all but the last video bitrate bucket. */
+  public static final int[] BITRATE_BUCKET_BOUNDS =
+      new int[] {500000, 1000000, 2000000, 4000000, 8000000};
+
+  private final int[] rebufferHistogram = new int[REBUFFER_BUCKET_BOUNDS_MS.length + 1];
+  private final long[] bitrateTimeHistogramMs = new long[BITRATE_BUCKET_BOUNDS.length + 1];
+
+  private long sessionStartMs;
+  private long joinTimeMs;
+  private boolean hasBeenReady;
+  private boolean seeking;
+  private int rebufferCount;
+  private long rebufferDurationMs;
+  private long rebufferStartMs;
+  private int droppedFrames;
+  private int bitrateSwitchCount;
+  private int videoBitrate;
+  private long playingStartMs;
+  private long playingTimeMs;
+  private long bitrateWeightedTimeMs;
+  private long bitrateKnownTimeMs;
+  private long bytesLoaded;
+
+  public QoeMetricsCollector() {
+    reset();
+  }
+
+  /*** Starts a new session. */
+  public void reset() {
+    sessionStartMs = SystemClock.elapsedRealtime();
+    joinTimeMs = C.TIME_UNSET;
+    hasBeenReady = false;
+    seeking = false;
+    rebufferCount = 0;
+    rebufferDurationMs = 0;
+    rebufferStartMs = C.TIME_UNSET;
+    droppedFrames = 0;
+    bitrateSwitchCount = 0;
+    videoBitrate = Format.NO_VALUE;
+    playingStartMs = C.TIME_UNSET;
+    playingTimeMs = 0;
+    bitrateWeightedTimeMs = 0;
+    bitrateKnownTimeMs = 0;
+    bytesLoaded = 0;
+    Arrays.fill(rebufferHistogram, 0);
+    Arrays.fill(bitrateTimeHistogramMs, 0);
+  }
+
+  /*** Time from the session start to the first time playback was ready, or {@link C#TIME_UNSET}. */
+  public long getJoinTimeMs() {
+    return joinTimeMs;
+  }
+
+  /*** Number of times playback stalled, not counting the initial load and seeks. */
+  public int getRebufferCount() {
+    return rebufferCount;
+  }
+
+  /*** Total stall time, including a stall that is still going on. */
+  public long getRebufferDurationMs() {
+    return rebufferStartMs == C.TIME_UNSET ? rebufferDurationMs
+        : rebufferDurationMs + SystemClock.elapsedRealtime() - rebufferStartMs;
+  }
+
+  public int getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  public int getBitrateSwitchCount() {
+    return bitrateSwitchCount;
+  }
+
+  /*** Time spent playing, not counting pauses and stalls. */
+  public long getPlayingTimeMs() {
+    return playingStartMs == C.TIME_UNSET ? playingTimeMs
+        : playingTimeMs + SystemClock.elapsedRealtime() - playingStartMs;
+  }
+
+  /*** Video bitrate averaged over playing time, or {@link Format#NO_VALUE} if unknown. */
+  public int getAverageVideoBitrate() {
+    long weightedTimeMs = bitrateWeightedTimeMs;
+    long knownTimeMs = bitrateKnownTimeMs;
+    if (playingStartMs != C.TIME_UNSET && videoBitrate != Format.NO_VALUE) {
+      long elapsedMs = SystemClock.elapsedRealtime() - playingStartMs;
+      weightedTimeMs += videoBitrate * elapsedMs;
+      knownTimeMs += elapsedMs;
+    }
+    return knownTimeMs == 0 ? Format.NO_VALUE : (int) (weightedTimeMs / knownTimeMs);
+  }
+
+  public long getBytesLoaded() {
+    return bytesLoaded;
+  }
+
+  /*** Returns the number of rebuffers per duration bucket. See {@link #REBUFFER_BUCKET_BOUNDS_MS}. */
+  public int[] getRebufferHistogram() {
+    return rebufferHistogram.clone();
+  }
+
+  /*** Returns the playing time per video bitrate bucket. See {@link #BITRATE_BUCKET_BOUNDS}. */
+  public long[] getBitrateTimeHistogramMs() {
+    return bitrateTimeHistogramMs.clone();
+  }
+
+  @Override
+  public String toString() {
+    return "QoeMetrics[joinTimeMs=" + joinTimeMs
+        + ", rebuffers=" + rebufferCount
+        + ", rebufferMs=" + getRebufferDurationMs()
+        + ", playingMs=" + getPlayingTimeMs()
+        + ", droppedFrames=" + droppedFrames
+        + ", bitrateSwitches=" + bitrateSwitchCount
+        + ", averageBitrate=" + getAverageVideoBitrate()
+        + ", bytesLoaded=" + bytesLoaded + "]";
+  }
+
+  // AnalyticsListener implementation
+
+  @Override
+  public void onPlayerStateChanged(EventTime eventTime, boolean playWhenReady, int playbackState) {
+    long nowMs = eventTime.realtimeMs;
+    if (playbackState == Player.STATE_READY) {
+      if (!hasBeenReady) {
+        hasBeenReady = true;
+        joinTimeMs = nowMs - sessionStartMs;
+      }
+      seeking = false;
+    }
+    if (playbackState == Player.STATE_BUFFERING) {
+      if (hasBeenReady && !seeking && rebufferStartMs == C.TIME_UNSET) {
+        rebufferStartMs = nowMs;
+      }
+    } else if (rebufferStartMs != C.TIME_UNSET) {
+      long durationMs = nowMs - rebufferStartMs;
+      rebufferStartMs = C.TIME_UNSET;
+      rebufferCount++;
+      rebufferDurationMs += durationMs;
+      rebufferHistogram[getRebufferBucket(durationMs)]++;
+    }
+    boolean playing = playWhenReady && playbackState == Player.STATE_READY;
+    if (playing && playingStartMs == C.TIME_UNSET) {
+      playingStartMs = nowMs;
+    } else if (!playing && playingStartMs != C.TIME_UNSET) {
+      updatePlayingTime(nowMs);
+      playingStartMs = C.TIME_UNSET;
+    }
+  }
+
+  @Override
+  public void onSeekStarted(EventTime eventTime) {
+    seeking = true;
+  }
+
+  @Override
+  public void onDroppedVideoFrames(EventTime eventTime, int droppedFrames, long elapsedMs) {
+    this.droppedFrames += droppedFrames;
+  }
+
+  @Override
+  public void onDownstreamFormatChanged(EventTime eventTime,
+                                        MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    Format format = mediaLoadData.trackFormat;
+    if (format == null || format.bitrate == Format.NO_VALUE
+        || (mediaLoadData.trackType != C.TRACK_TYPE_VIDEO
+        && !MimeTypes.isVideo(format.sampleMimeType) && format.width == Format.NO_VALUE)) {
+      return;
+    }
+    if (format.bitrate != videoBitrate) {
+      if (playingStartMs != C.TIME_UNSET) {
+        updatePlayingTime(eventTime.realtimeMs);
+        playingStartMs = eventTime.realtimeMs;
+      }
+      if (videoBitrate != Format.NO_VALUE) {
+        bitrateSwitchCount++;
+      }
+      videoBitrate = format.bitrate;
+    }
+  }
+
+  @Override
+  public void onLoadCompleted(EventTime eventTime,
+                              MediaSourceEventListener.LoadEventInfo loadEventInfo,
+                              MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    bytesLoaded += loadEventInfo.bytesLoaded;
+  }
+
+  // Internal methods
+
+  private void updatePlayingTime(long nowMs) {
+    long elapsedMs = nowMs - playingStartMs;
+    playingTimeMs += elapsedMs;
+    if (videoBitrate != Format.NO_VALUE) {
+      bitrateWeightedTimeMs += videoBitrate * elapsedMs;
+      bitrateKnownTimeMs += elapsedMs;
+      bitrateTimeHistogramMs[getBitrateBucket(videoBitrate)] += elapsedMs;
+    }
+  }
+
+  /*** Returns the index of the {@link #REBUFFER_BUCKET_BOUNDS_MS} bucket for {@code durationMs}. */
+  /* package */ static int getRebufferBucket(long durationMs) {
+    int bucket = 0;
+    while (bucket < REBUFFER_BUCKET_BOUNDS_MS.length
+        && durationMs > REBUFFER_BUCKET_BOUNDS_MS[bucket]) {
+      bucket++;
+    }
+    return bucket;
+  }
+
+  /*** Returns the index of the {@link #BITRATE_BUCKET_BOUNDS} bucket {@code bitrate} is in. */
+  /* package */ static int getBitrateBucket(int bitrate) {
+    int bucket = 0;
+    while (bucket < BITRATE_BUCKET_BOUNDS.length && bitrate > BITRATE_BUCKET_BOUNDS[bucket]) {
+      bucket++;
+    }
+    return bucket;
+  }
+}
@@ -0,0 +1,149 @@
+package com.dfbarone.android.exoplayer2.manager.analytics;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.analytics.AnalyticsListener;
+import com.google.android.exoplayer2.analytics.DefaultAnalyticsListener;
+import com.google.android.exoplayer2.source.MediaSourceEventListener;
+import com.google.android.exoplayer2.source.TrackGroupArray;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelectionArray;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.util.Arrays;
+
+/**
+ * Records the startup phases of a playback session and delivers a {@link StartupTimingReport} once
+ * the session is ready and, if it has video, has rendered its first frame.
+ *
+ * <p>Build phases are recorded by the manager. Milestones that happen on the player are picked up
+ * by adding the timer as an {@link AnalyticsListener}. One instance is reused across sessions and
+ * nothing is allocated until a report is built.
+ */
+public final class StartupTimer extends DefaultAnalyticsListener {
+
+  /*** Receives the report of each session. */
+  public interface Listener {
+
+    void onStartupTimingReport(StartupTimingReport report);
+  }
+
+  private final Listener listener;
+  private final long[] phaseStartMs = new long[StartupTimingReport.PHASE_COUNT];
+  private final long[] phaseEndMs = new long[StartupTimingReport.PHASE_COUNT];
+  private long sessionStartMs = C.TIME_UNSET;
+  private boolean expectsFirstFrame;
+
+  public StartupTimer(Listener listener) {
+    this.listener = listener;
+  }
+
+  /*** Starts a new session, discarding any session that hasn't been reported. */
+  public void start() {
+    sessionStartMs = SystemClock.elapsedRealtime();
+    expectsFirstFrame = true;
+    Arrays.fill(phaseStartMs, C.TIME_UNSET);
+    Arrays.fill(phaseEndMs, C.TIME_UNSET);
+  }
+
+  public boolean isStarted() {
+    return sessionStartMs != C.TIME_UNSET;
+  }
+
+  public void beginPhase(int phase) {
+    if (isStarted() && phaseStartMs[phase] == C.TIME_UNSET) {
+      phaseStartMs[phase] = SystemClock.elapsedRealtime();
+    }
+  }
+
+  public void endPhase(int phase) {
+    if (isStarted() && phaseStartMs[phase] != C.TIME_UNSET && phaseEndMs[phase] == C.TIME_UNSET) {
+      phaseEndMs[phase] = SystemClock.elapsedRealtime();
+    }
+  }
+
+  /**
+   * Records a phase that was timed elsewhere, such as on a build thread, unless the phase has been
+   * recorded already. Must be called on the thread the timer is used on.
+   */
+  public void recordPhase(int phase, long startMs, long endMs) {
+    if (isStarted() && phaseStartMs[phase] == C.TIME_UNSET) {
+      phaseStartMs[phase] = startMs;
+      phaseEndMs[phase] = endMs;
+    }
+  }
+
+  /*** Reports the current session as is, if it hasn't been reported yet. */
+  public void finish() {
+    if (isStarted()) {
+      StartupTimingReport report =
+          new StartupTimingReport(sessionStartMs, phaseStartMs, phaseEndMs);
+      sessionStartMs = C.TIME_UNSET;
+      listener.onStartupTimingReport(report);
+    }
+  }
+
+  // AnalyticsListener implementation
+
+  @Override
+  public void onPlayerStateChanged(EventTime eventTime, boolean playWhenReady, int playbackState) {
+    if (playbackState == Player.STATE_READY) {
+      mark(StartupTimingReport.PHASE_READY, eventTime.realtimeMs);
+    }
+  }
+
+  @Override
+  public void onTracksChanged(EventTime eventTime, TrackGroupArray trackGroups,
+                              TrackSelectionArray trackSelections) {
+    if (!isStarted()) {
+      return;
+    }
+    boolean hasVideo = false;
+    for (int i = 0; i < trackSelections.length; i++) {
+      TrackSelection trackSelection = trackSelections.get(i);
+      if (trackSelection != null) {
+        Format format = trackSelection.getSelectedFormat();
+        hasVideo |= MimeTypes.isVideo(format.sampleMimeType);
+      }
+    }
+    expectsFirstFrame = hasVideo;
+    maybeFinish();
+  }
+
+  @Override
+  public void onLoadCompleted(EventTime eventTime,
+                              MediaSourceEventListener.LoadEventInfo loadEventInfo,
+                              MediaSourceEventListener.MediaLoadData mediaLoadData) {
+    if (mediaLoadData.dataType == C.DATA_TYPE_MANIFEST) {
+      mark(StartupTimingReport.PHASE_FIRST_MANIFEST_LOAD, eventTime.realtimeMs);
+    }
+  }
+
+  @Override
+  public void onRenderedFirstFrame(EventTime eventTime, @Nullable Surface surface) {
+    mark(StartupTimingReport.PHASE_FIRST_FRAME_RENDERED, eventTime.realtimeMs);
+  }
+
+  // Internal methods
+
+  private void mark(int phase, long realtimeMs) {
+    if (isStarted() && phaseEndMs[phase] == C.TIME_UNSET) {
+      phaseStartMs[phase] = sessionStartMs;
+      phaseEndMs[phase] = realtimeMs;
+      maybeFinish();
+    }
+  }
+
+  private void maybeFinish() {
+    if (phaseEndMs[StartupTimingReport.PHASE_READY] != C.TIME_UNSET
+        && (!expectsFirstFrame
+        || phaseEndMs[StartupTimingReport.PHASE_FIRST_FRAME_RENDERED] != C.TIME_UNSET)) {
+      finish();
+    }
+  }
+}
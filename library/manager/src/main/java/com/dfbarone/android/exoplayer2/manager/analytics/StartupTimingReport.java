@@ -0,0 +1,89 @@
+package com.dfbarone.android.exoplayer2.manager.analytics;
+
+import com.google.android.exoplayer2.C;
+
+/**
+ * An immutable breakdown of where startup time went for one playback session.
+ *
+ * <p>All timestamps are {@link android.os.SystemClock#elapsedRealtime()} values in milliseconds,
+ * or {@link C#TIME_UNSET} if the phase didn't happen, for example because the content has no DRM
+ * or the session was released before it rendered a frame.
+ */
+public final class StartupTimingReport {
+
+  // Phases, which have a start and an end.
+  public static final int PHASE_INTENT_PARSING = 0;
+  public static final int PHASE_DRM_SESSION_BUILD = 1;
+  public static final int PHASE_PLAYER_CREATION = 2;
+  public static final int PHASE_MEDIA_SOURCE_CONSTRUCTION = 3;
+  public static final int PHASE_ADS_LOADER_SETUP = 4;
+  public static final int PHASE_PREPARE = 5;
+  // Milestones, which only have an end and are measured from the session start.
+  public static final int PHASE_FIRST_MANIFEST_LOAD = 6;
+  public static final int PHASE_FIRST_FRAME_RENDERED = 7;
+  public static final int PHASE_READY = 8;
+
+  public static final int PHASE_COUNT = 9;
+
+  private static final String[] PHASE_NAMES = new String[] {
+      "intentParsing", "drmSessionBuild", "playerCreation", "mediaSourceConstruction",
+      "adsLoaderSetup", "prepare", "firstManifestLoad", "firstFrameRendered", "ready"};
+
+  public final long sessionStartMs;
+  private final long[] phaseStartMs;
+  private final long[] phaseEndMs;
+
+  StartupTimingReport(long sessionStartMs, long[] phaseStartMs, long[] phaseEndMs) {
+    this.sessionStartMs = sessionStartMs;
+    this.phaseStartMs = phaseStartMs.clone();
+    this.phaseEndMs = phaseEndMs.clone();
+  }
+
+  public static String getPhaseName(int phase) {
+    return PHASE_NAMES[phase];
+  }
+
+  public long getPhaseStartMs(int phase) {
+    return phaseStartMs[phase];
+  }
+
+  public long getPhaseEndMs(int phase) {
+    return phaseEndMs[phase];
+  }
+
+  /*** Returns how long {@code phase} took, or {@link C#TIME_UNSET}. */
+  public long getPhaseDurationMs(int phase) {
+    long startMs = phaseStartMs[phase];
+    long endMs = phaseEndMs[phase];
+    return startMs == C.TIME_UNSET || endMs == C.TIME_UNSET ? C.TIME_UNSET : endMs - startMs;
+  }
+
+  /*** Returns the time from the session start to the end of {@code phase}, or {@link C#TIME_UNSET}. */
+  public long getTimeSinceStartMs(int phase) {
+    long endMs = phaseEndMs[phase];
+    return endMs == C.TIME_UNSET ? C.TIME_UNSET : endMs - sessionStartMs;
+  }
+
+  public long getTimeToFirstFrameMs() {
+    return getTimeSinceStartMs(PHASE_FIRST_FRAME_RENDERED);
+  }
+
+  public long getTimeToReadyMs() {
+    return getTimeSinceStartMs(PHASE_READY);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("StartupTimingReport[");
+    for (int phase = 0; phase < PHASE_COUNT; phase++) {
+      long valueMs = phase < PHASE_FIRST_MANIFEST_LOAD
+          ? getPhaseDurationMs(phase) : getTimeSinceStartMs(phase);
+      if (phase > 0) {
+        builder.append(", ");
+      }
+      builder.append(PHASE_NAMES[phase]).append('=')
+          .append(valueMs == C.TIME_UNSET ? "?" : String.valueOf(valueMs));
+    }
+    return builder.append(']').toString();
+  }
+}
@@ -0,0 +1,172 @@
+package com.dfbarone.android.exoplayer2.manager.drm;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+import android.util.Pair;
+
+import com.google.android.exoplayer2.drm.DrmInitData;
+import com.google.android.exoplayer2.drm.FrameworkMediaCrypto;
+import com.google.android.exoplayer2.drm.FrameworkMediaDrm;
+import com.google.android.exoplayer2.drm.MediaDrmCallback;
+import com.google.android.exoplayer2.drm.OfflineLicenseHelper;
+import com.google.android.exoplayer2.util.Log;
+
+import java.security.MessageDigest;
+import java.util.UUID;
+
+/**
+ * Persists offline DRM license key set ids keyed by DRM scheme and content key id, so that repeat
+ * playback can restore keys without a license request.
+ *
+ * <p>The content key id is a digest of the scheme specific init data, which carries the key ids.
+ * Because the init data is only known once the manifest is loaded, each content uri is also mapped
+ * to its key id so the license can be found before the player is prepared. Expired licenses are
+ * dropped when looked up.
+ */
+public final class OfflineLicenseStore {
+
+  private static final String TAG = "OfflineLicenseStore";
+  private static final String PREFERENCES_NAME = "offline_licenses";
+  private static final String CONTENT_PREFIX = "content:";
+  private static final String KEY_SET_ID_PREFIX = "key_set_id:";
+  private static final String EXPIRES_AT_PREFIX = "expires_at:";
+
+  private static OfflineLicenseStore instance;
+
+  private final SharedPreferences preferences;
+  private final Handler downloadHandler;
+
+  public static synchronized OfflineLicenseStore getInstance(Context context) {
+    if (instance == null) {
+      instance = new OfflineLicenseStore(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private OfflineLicenseStore(Context context) {
+    preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    HandlerThread downloadThread = new HandlerThread(TAG);
+    downloadThread.start();
+    downloadHandler = new Handler(downloadThread.getLooper());
+  }
+
+  /*** Returns the key set id of an unexpired license for {@code contentUri}, or null. */
+  @Nullable
+  public synchronized byte[] getKeySetId(UUID uuid, Uri contentUri) {
+    String contentKeyId = preferences.getString(contentKey(uuid, contentUri), null);
+    return contentKeyId == null ? null : getKeySetId(uuid, contentKeyId);
+  }
+
+  /*** Returns the key set id of an unexpired license for {@code contentKeyId}, or null. */
+  @Nullable
+  public synchronized byte[] getKeySetId(UUID uuid, String contentKeyId) {
+    String licenseKey = licenseKey(uuid, contentKeyId);
+    String keySetId = preferences.getString(KEY_SET_ID_PREFIX + licenseKey, null);
+    if (keySetId == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() >= preferences.getLong(EXPIRES_AT_PREFIX + licenseKey, 0)) {
+      preferences.edit()
+          .remove(KEY_SET_ID_PREFIX + licenseKey)
+          .remove(EXPIRES_AT_PREFIX + licenseKey)
+          .apply();
+      return null;
+    }
+    return Base64.decode(keySetId, Base64.NO_WRAP);
+  }
+
+  public synchronized void put(UUID uuid, Uri contentUri, String contentKeyId, byte[] keySetId,
+                               long licenseDurationSec) {
+    long nowMs = System.currentTimeMillis();
+    long expiresAtMs = licenseDurationSec >= (Long.MAX_VALUE - nowMs) / 1000
+        ? Long.MAX_VALUE : nowMs + licenseDurationSec * 1000;
+    String licenseKey = licenseKey(uuid, contentKeyId);
+    preferences.edit()
+        .putString(contentKey(uuid, contentUri), contentKeyId)
+        .putString(KEY_SET_ID_PREFIX + licenseKey, Base64.encodeToString(keySetId, Base64.NO_WRAP))
+        .putLong(EXPIRES_AT_PREFIX + licenseKey, expiresAtMs)
+        .apply();
+  }
+
+  /*** Forgets the license for {@code contentUri}, for example because restoring it failed. */
+  public synchronized void remove(UUID uuid, Uri contentUri) {
+    String contentKey = contentKey(uuid, contentUri);
+    String contentKeyId = preferences.getString(contentKey, null);
+    SharedPreferences.Editor editor = preferences.edit().remove(contentKey);
+    if (contentKeyId != null) {
+      String licenseKey = licenseKey(uuid, contentKeyId);
+      editor.remove(KEY_SET_ID_PREFIX + licenseKey).remove(EXPIRES_AT_PREFIX + licenseKey);
+    }
+    editor.apply();
+  }
+
+  /**
+   * Downloads an offline license for {@code drmInitData} on a background thread and stores it.
+   * Failures, for example because the license server doesn't allow persistence, are logged.
+   */
+  public void downloadLicenseAsync(final UUID uuid, final Uri contentUri,
+                                   final DrmInitData drmInitData, final MediaDrmCallback callback) {
+    final String contentKeyId = getContentKeyId(uuid, drmInitData);
+    if (contentKeyId == null) {
+      return;
+    }
+    downloadHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (getKeySetId(uuid, contentKeyId) != null) {
+          // Another content uri already fetched the license for these keys.
+          preferences.edit().putString(contentKey(uuid, contentUri), contentKeyId).apply();
+          return;
+        }
+        OfflineLicenseHelper<FrameworkMediaCrypto> helper = null;
+        try {
+          helper = new OfflineLicenseHelper<>(uuid, FrameworkMediaDrm.newInstance(uuid), callback,
+              null);
+          byte[] keySetId = helper.downloadLicense(drmInitData);
+          Pair<Long, Long> remainingSec = helper.getLicenseDurationRemainingSec(keySetId);
+          long licenseDurationSec = Math.min(remainingSec.first, remainingSec.second);
+          if (licenseDurationSec > 0) {
+            put(uuid, contentUri, contentKeyId, keySetId, licenseDurationSec);
+          }
+        } catch (Exception e) {
+          Log.w(TAG, "Failed to download offline license", e);
+        } finally {
+          if (helper != null) {
+            helper.release();
+          }
+        }
+      }
+    });
+  }
+
+  /*** Returns a stable id for the keys described by {@code drmInitData}, or null. */
+  @Nullable
+  public static String getContentKeyId(UUID uuid, DrmInitData drmInitData) {
+    for (int i = 0; i < drmInitData.schemeDataCount; i++) {
+      DrmInitData.SchemeData schemeData = drmInitData.get(i);
+      if (schemeData.matches(uuid) && schemeData.data != null) {
+        try {
+          byte[] digest = MessageDigest.getInstance("SHA-1").digest(schemeData.data);
+          return Base64.encodeToString(digest, Base64.NO_WRAP | Base64.URL_SAFE);
+        } catch (Exception e) {
+          Log.w(TAG, "Failed to compute content key id", e);
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String contentKey(UUID uuid, Uri contentUri) {
+    return CONTENT_PREFIX + uuid + ":" + contentUri;
+  }
+
+  private static String licenseKey(UUID uuid, String contentKeyId) {
+    return uuid + ":" + contentKeyId;
+  }
+}
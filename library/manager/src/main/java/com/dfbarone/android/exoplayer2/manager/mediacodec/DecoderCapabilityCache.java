@@ -0,0 +1,203 @@
+package com.dfbarone.android.exoplayer2.manager.mediacodec;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayerLibraryInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecInfo;
+import com.google.android.exoplayer2.mediacodec.MediaCodecUtil;
+import com.google.android.exoplayer2.util.Log;
+import com.google.android.exoplayer2.util.MimeTypes;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs {@link MediaCodecUtil} decoder queries on a background thread, so that the first player
+ * after process start finds them in {@link MediaCodecUtil}'s cache instead of paying for them on
+ * the playback path.
+ *
+ * <p>Results are persisted keyed by mime type and secure flag. The persisted cache is versioned
+ * and dropped when the OS build fingerprint or the ExoPlayer version changes. It lets decoder
+ * support be answered without touching {@code MediaCodecList}, and it records every mime type
+ * that was played so later warm-ups cover it too. Call {@link #warmUp()} from
+ * {@code Application.onCreate}. Neither it nor {@link #getInstance(Context)} reads from disk on the
+ * calling thread.
+ */
+public final class DecoderCapabilityCache {
+
+  private static final String TAG = "DecoderCapabilityCache";
+  private static final String PREFERENCES_NAME = "decoder_capabilities";
+  private static final int VERSION = 1;
+  private static final String KEY_VERSION = "version";
+  private static final String KEY_FINGERPRINT = "fingerprint";
+  private static final String DECODERS_PREFIX = "decoders:";
+  private static final String[] DEFAULT_MIME_TYPES = new String[] {
+      MimeTypes.VIDEO_H264, MimeTypes.VIDEO_H265, MimeTypes.VIDEO_VP9, MimeTypes.AUDIO_AAC};
+
+  private static DecoderCapabilityCache instance;
+
+  private final SharedPreferences preferences;
+  private final Set<String> pendingKeys = new HashSet<>();
+  private Thread warmUpThread;
+  private boolean versionChecked;
+  private volatile boolean warmedUp;
+  private volatile long warmUpDurationMs = C.TIME_UNSET;
+
+  public static synchronized DecoderCapabilityCache getInstance(Context context) {
+    if (instance == null) {
+      instance = new DecoderCapabilityCache(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private DecoderCapabilityCache(Context context) {
+    // Loads in the background. The first read blocks until loading is done, so reads are left to
+    // the warm-up thread where possible.
+    preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+  }
+
+  /*** Starts warming up decoder queries on a background thread. Later calls do nothing. */
+  public synchronized void warmUp() {
+    if (warmUpThread != null) {
+      return;
+    }
+    warmUpThread = new Thread(TAG) {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        long startMs = SystemClock.elapsedRealtime();
+        checkVersion();
+        for (String key : getWarmUpKeys()) {
+          query(getMimeType(key), isSecure(key));
+        }
+        try {
+          // The H.264 renderer asks for this when it checks format support.
+          MediaCodecUtil.maxH264DecodableFrameSize();
+        } catch (MediaCodecUtil.DecoderQueryException e) {
+          Log.w(TAG, "Failed to query max H.264 frame size", e);
+        }
+        warmUpDurationMs = SystemClock.elapsedRealtime() - startMs;
+        warmedUp = true;
+      }
+    };
+    warmUpThread.start();
+  }
+
+  public boolean isWarmedUp() {
+    return warmedUp;
+  }
+
+  /*** How long the last warm-up took, or {@link C#TIME_UNSET} if it hasn't finished. */
+  public long getWarmUpDurationMs() {
+    return warmUpDurationMs;
+  }
+
+  /**
+   * Returns the persisted decoder names for {@code mimeType}, which are empty if there is no
+   * decoder, or null if it hasn't been queried on this build.
+   */
+  @Nullable
+  public synchronized String[] getDecoderNames(String mimeType, boolean secure) {
+    checkVersion();
+    String decoders = preferences.getString(DECODERS_PREFIX + buildKey(mimeType, secure), null);
+    if (decoders == null) {
+      return null;
+    }
+    return decoders.isEmpty() ? new String[0] : TextUtils.split(decoders, ",");
+  }
+
+  /**
+   * Makes sure {@code mimeType} is covered by future warm-ups. Queries it in the background if it
+   * hasn't been queried on this build yet.
+   */
+  public synchronized void addMimeType(final String mimeType, final boolean secure) {
+    if (getDecoderNames(mimeType, secure) != null || !pendingKeys.add(buildKey(mimeType, secure))) {
+      return;
+    }
+    new Thread(TAG) {
+      @Override
+      public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        query(mimeType, secure);
+        synchronized (DecoderCapabilityCache.this) {
+          pendingKeys.remove(buildKey(mimeType, secure));
+        }
+      }
+    }.start();
+  }
+
+  // Internal methods
+
+  /*** Drops the persisted results if they were written by another version or OS build. */
+  private synchronized void checkVersion() {
+    if (versionChecked) {
+      return;
+    }
+    versionChecked = true;
+    String fingerprint = getFingerprint();
+    if (preferences.getInt(KEY_VERSION, 0) != VERSION
+        || !fingerprint.equals(preferences.getString(KEY_FINGERPRINT, null))) {
+      preferences.edit()
+          .clear()
+          .putInt(KEY_VERSION, VERSION)
+          .putString(KEY_FINGERPRINT, fingerprint)
+          .apply();
+    }
+  }
+
+  private void query(String mimeType, boolean secure) {
+    try {
+      List<MediaCodecInfo> decoderInfos = MediaCodecUtil.getDecoderInfos(mimeType, secure);
+      String[] names = new String[decoderInfos.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = decoderInfos.get(i).name;
+      }
+      synchronized (this) {
+        preferences.edit()
+            .putString(DECODERS_PREFIX + buildKey(mimeType, secure), TextUtils.join(",", names))
+            .apply();
+      }
+    } catch (MediaCodecUtil.DecoderQueryException e) {
+      Log.w(TAG, "Failed to query decoders for " + mimeType, e);
+    }
+  }
+
+  private synchronized Set<String> getWarmUpKeys() {
+    Set<String> keys = new LinkedHashSet<>();
+    for (String mimeType : DEFAULT_MIME_TYPES) {
+      keys.add(buildKey(mimeType, false));
+    }
+    for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+      if (entry.getKey().startsWith(DECODERS_PREFIX)) {
+        keys.add(entry.getKey().substring(DECODERS_PREFIX.length()));
+      }
+    }
+    return keys;
+  }
+
+  private static String buildKey(String mimeType, boolean secure) {
+    return (secure ? "secure:" : "clear:") + mimeType;
+  }
+
+  private static String getMimeType(String key) {
+    return key.substring(key.indexOf(':') + 1);
+  }
+
+  private static boolean isSecure(String key) {
+    return key.startsWith("secure:");
+  }
+
+  private static String getFingerprint() {
+    return Build.FINGERPRINT + "/" + ExoPlayerLibraryInfo.VERSION;
+  }
+}
@@ -0,0 +1,73 @@
+package com.dfbarone.android.exoplayer2.manager.source;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.dfbarone.android.exoplayer2.manager.PlayerManager;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Timeline;
+import com.google.android.exoplayer2.source.CompositeMediaSource;
+import com.google.android.exoplayer2.source.MediaPeriod;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.upstream.Allocator;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+/**
+ * A {@link MediaSource} that only holds a uri until it is materialized, either ahead of time by
+ * {@link LazyPlaylist} or when the player first prepares it.
+ */
+public final class LazyMediaSource extends CompositeMediaSource<Void> {
+
+  private final PlayerManager.MediaSourceBuilder mediaSourceBuilder;
+  private final Uri uri;
+  @Nullable
+  private final String overrideExtension;
+
+  private MediaSource mediaSource;
+
+  public LazyMediaSource(PlayerManager.MediaSourceBuilder mediaSourceBuilder, Uri uri,
+                         @Nullable String overrideExtension) {
+    this.mediaSourceBuilder = mediaSourceBuilder;
+    this.uri = uri;
+    this.overrideExtension = overrideExtension;
+  }
+
+  public Uri getUri() {
+    return uri;
+  }
+
+  /*** Builds the wrapped media source if that hasn't happened yet, and returns it. */
+  public synchronized MediaSource materialize() {
+    if (mediaSource == null) {
+      mediaSource = mediaSourceBuilder.buildMediaSource(uri, overrideExtension);
+    }
+    return mediaSource;
+  }
+
+  public synchronized boolean isMaterialized() {
+    return mediaSource != null;
+  }
+
+  @Override
+  public void prepareSourceInternal(ExoPlayer player, boolean isTopLevelSource,
+                                    @Nullable TransferListener mediaTransferListener) {
+    super.prepareSourceInternal(player, isTopLevelSource, mediaTransferListener);
+    prepareChildSource(null, materialize());
+  }
+
+  @Override
+  protected void onChildSourceInfoRefreshed(Void id, MediaSource mediaSource, Timeline timeline,
+                                            @Nullable Object manifest) {
+    refreshSourceInfo(timeline, manifest);
+  }
+
+  @Override
+  public MediaPeriod createPeriod(MediaPeriodId id, Allocator allocator) {
+    return materialize().createPeriod(id, allocator);
+  }
+
+  @Override
+  public void releasePeriod(MediaPeriod mediaPeriod) {
+    materialize().releasePeriod(mediaPeriod);
+  }
+}
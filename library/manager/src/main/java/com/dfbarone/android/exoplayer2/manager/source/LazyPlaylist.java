@@ -0,0 +1,85 @@
+package com.dfbarone.android.exoplayer2.manager.source;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.dfbarone.android.exoplayer2.manager.PlayerManager;
+import com.google.android.exoplayer2.source.ConcatenatingMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.ShuffleOrder;
+
+/**
+ * A playlist that only materializes the items in a window around the current index.
+ *
+ * <p>Every item is backed by a {@link LazyMediaSource} inside a lazily preparing
+ * {@link ConcatenatingMediaSource}, so each uri keeps its window index for the lifetime of the
+ * playlist. Items that fall out of the window are swapped for fresh, unmaterialized placeholders
+ * which releases their prepared media. Must be used on the application thread.
+ */
+public class LazyPlaylist {
+
+  private final PlayerManager.MediaSourceBuilder mediaSourceBuilder;
+  private final Uri[] uris;
+  private final String[] extensions;
+  private final int itemsBehind;
+  private final int itemsAhead;
+  private final LazyMediaSource[] items;
+  private final ConcatenatingMediaSource mediaSource;
+
+  private int windowStart = -1;
+  private int windowEnd = -1;
+
+  public LazyPlaylist(PlayerManager.MediaSourceBuilder mediaSourceBuilder, Uri[] uris,
+                      @Nullable String[] extensions, int itemsBehind, int itemsAhead) {
+    this.mediaSourceBuilder = mediaSourceBuilder;
+    this.uris = uris;
+    this.extensions = extensions != null ? extensions : new String[uris.length];
+    this.itemsBehind = Math.max(0, itemsBehind);
+    this.itemsAhead = Math.max(0, itemsAhead);
+    items = new LazyMediaSource[uris.length];
+    for (int i = 0; i < uris.length; i++) {
+      items[i] = newItem(i);
+    }
+    mediaSource = new ConcatenatingMediaSource(/* isAtomic= */ false,
+        /* useLazyPreparation= */ true, new ShuffleOrder.DefaultShuffleOrder(0), items);
+  }
+
+  public MediaSource getMediaSource() {
+    return mediaSource;
+  }
+
+  public int size() {
+    return items.length;
+  }
+
+  /*** Materializes the items around {@code currentIndex} and releases those outside of it. */
+  public void updateWindow(int currentIndex) {
+    if (items.length == 0) {
+      return;
+    }
+    currentIndex = Math.max(0, Math.min(currentIndex, items.length - 1));
+    int start = Math.max(0, currentIndex - itemsBehind);
+    int end = Math.min(items.length - 1, currentIndex + itemsAhead);
+    if (start == windowStart && end == windowEnd) {
+      return;
+    }
+    if (windowStart != -1) {
+      for (int i = windowStart; i <= windowEnd; i++) {
+        if ((i < start || i > end) && items[i].isMaterialized()) {
+          items[i] = newItem(i);
+          mediaSource.removeMediaSource(i);
+          mediaSource.addMediaSource(i, items[i]);
+        }
+      }
+    }
+    for (int i = start; i <= end; i++) {
+      items[i].materialize();
+    }
+    windowStart = start;
+    windowEnd = end;
+  }
+
+  private LazyMediaSource newItem(int index) {
+    return new LazyMediaSource(mediaSourceBuilder, uris[index], extensions[index]);
+  }
+}
@@ -0,0 +1,92 @@
+package com.dfbarone.android.exoplayer2.manager.source;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.ExtractorMediaSource;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.source.dash.DashMediaSource;
+import com.google.android.exoplayer2.source.dash.DefaultDashChunkSource;
+import com.google.android.exoplayer2.source.hls.HlsDataSourceFactory;
+import com.google.android.exoplayer2.source.hls.HlsMediaSource;
+import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
+import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * Builds one media source factory per content type on first use and reuses it for every uri, so
+ * that large playlists don't allocate a new factory graph per item. Thread safe, since lazy playlist
+ * items may be built on the playback thread.
+ */
+public class MediaSourceFactoryRegistry {
+
+  private final DataSource.Factory mediaDataSourceFactory;
+  private final DataSource.Factory manifestDataSourceFactory;
+
+  private DashMediaSource.Factory dashFactory;
+  private SsMediaSource.Factory ssFactory;
+  private HlsMediaSource.Factory hlsFactory;
+  private ExtractorMediaSource.Factory extractorFactory;
+
+  public MediaSourceFactoryRegistry(DataSource.Factory mediaDataSourceFactory,
+                                    DataSource.Factory manifestDataSourceFactory) {
+    this.mediaDataSourceFactory = mediaDataSourceFactory;
+    this.manifestDataSourceFactory = manifestDataSourceFactory;
+  }
+
+  public synchronized MediaSource createMediaSource(Uri uri, @Nullable String overrideExtension) {
+    @C.ContentType int type = Util.inferContentType(uri, overrideExtension);
+    switch (type) {
+      case C.TYPE_DASH:
+        return getDashFactory().createMediaSource(uri);
+      case C.TYPE_SS:
+        return getSsFactory().createMediaSource(uri);
+      case C.TYPE_HLS:
+        return getHlsFactory().createMediaSource(uri);
+      case C.TYPE_OTHER:
+        return getExtractorFactory().createMediaSource(uri);
+      default: {
+        throw new IllegalStateException("Unsupported type: " + type);
+      }
+    }
+  }
+
+  public synchronized DashMediaSource.Factory getDashFactory() {
+    if (dashFactory == null) {
+      dashFactory = new DashMediaSource.Factory(
+          new DefaultDashChunkSource.Factory(mediaDataSourceFactory), manifestDataSourceFactory);
+    }
+    return dashFactory;
+  }
+
+  public synchronized SsMediaSource.Factory getSsFactory() {
+    if (ssFactory == null) {
+      ssFactory = new SsMediaSource.Factory(
+          new DefaultSsChunkSource.Factory(mediaDataSourceFactory), manifestDataSourceFactory);
+    }
+    return ssFactory;
+  }
+
+  public synchronized HlsMediaSource.Factory getHlsFactory() {
+    if (hlsFactory == null) {
+      // Playlists go through the manifest factory, segments through the media factory.
+      hlsFactory = new HlsMediaSource.Factory(new HlsDataSourceFactory() {
+        @Override
+        public DataSource createDataSource(int dataType) {
+          return dataType == C.DATA_TYPE_MANIFEST ? manifestDataSourceFactory.createDataSource()
+              : mediaDataSourceFactory.createDataSource();
+        }
+      });
+    }
+    return hlsFactory;
+  }
+
+  public synchronized ExtractorMediaSource.Factory getExtractorFactory() {
+    if (extractorFactory == null) {
+      extractorFactory = new ExtractorMediaSource.Factory(mediaDataSourceFactory);
+    }
+    return extractorFactory;
+  }
+}
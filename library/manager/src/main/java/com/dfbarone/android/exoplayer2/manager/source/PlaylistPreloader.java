@@ -0,0 +1,256 @@
+package com.dfbarone.android.exoplayer2.manager.source;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifest;
+import com.google.android.exoplayer2.source.dash.manifest.DashManifestParser;
+import com.google.android.exoplayer2.source.dash.manifest.Period;
+import com.google.android.exoplayer2.source.dash.manifest.RangedUri;
+import com.google.android.exoplayer2.source.dash.manifest.Representation;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylist;
+import com.google.android.exoplayer2.source.hls.playlist.HlsPlaylistParser;
+import com.google.android.exoplayer2.source.smoothstreaming.manifest.SsManifestParser;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.ParsingLoadable;
+import com.google.android.exoplayer2.util.Log;
+import com.google.android.exoplayer2.util.UriUtil;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * Fetches the start of an upcoming playlist item in the background: its manifest, its
+ * initialization segments and its first few seconds of media, up to a byte budget.
+ *
+ * <p>Media is read through the given {@link DataSource.Factory}, so the preloaded bytes end up
+ * wherever that factory caches them. Manifests can be read through a separate factory, so that
+ * they are cached the way the player loads them. Must be called from the application thread.
+ */
+public class PlaylistPreloader {
+
+  private static final String TAG = "PlaylistPreloader";
+
+  /*** How much media, after initialization data, is preloaded at most. */
+  public static final long DEFAULT_MAX_MEDIA_DURATION_US = 5 * C.MICROS_PER_SECOND;
+
+  private final DataSource.Factory dataSourceFactory;
+  private final DataSource.Factory manifestDataSourceFactory;
+  private final long byteBudget;
+  private final long maxMediaDurationUs;
+  private final HandlerThread loaderThread;
+  private final Handler loaderHandler;
+  private final byte[] scratch = new byte[16 * 1024];
+
+  private volatile int generation;
+  private volatile long preloadedBytes;
+
+  public PlaylistPreloader(DataSource.Factory dataSourceFactory, long byteBudget) {
+    this(dataSourceFactory, dataSourceFactory, byteBudget);
+  }
+
+  public PlaylistPreloader(DataSource.Factory dataSourceFactory,
+                           DataSource.Factory manifestDataSourceFactory, long byteBudget) {
+    this(dataSourceFactory, manifestDataSourceFactory, byteBudget, DEFAULT_MAX_MEDIA_DURATION_US);
+  }
+
+  public PlaylistPreloader(DataSource.Factory dataSourceFactory,
+                           DataSource.Factory manifestDataSourceFactory, long byteBudget,
+                           long maxMediaDurationUs) {
+    this.dataSourceFactory = dataSourceFactory;
+    this.manifestDataSourceFactory = manifestDataSourceFactory;
+    this.byteBudget = byteBudget;
+    this.maxMediaDurationUs = maxMediaDurationUs;
+    loaderThread = new HandlerThread(TAG);
+    loaderThread.start();
+    loaderHandler = new Handler(loaderThread.getLooper());
+  }
+
+  /*** Starts preloading {@code uri}, cancelling any preload that is still running. */
+  public void preload(final Uri uri, @Nullable final String overrideExtension) {
+    final int preloadGeneration = ++generation;
+    loaderHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (preloadGeneration != generation) {
+          return;
+        }
+        try {
+          preloadInternal(uri, overrideExtension, preloadGeneration);
+        } catch (Exception e) {
+          Log.w(TAG, "Failed to preload " + uri, e);
+        }
+      }
+    });
+  }
+
+  public void cancel() {
+    generation++;
+  }
+
+  public void release() {
+    cancel();
+    loaderThread.quit();
+  }
+
+  /*** Total number of bytes preloaded so far. */
+  public long getPreloadedBytes() {
+    return preloadedBytes;
+  }
+
+  // Internal methods. Called on the loader thread.
+
+  private void preloadInternal(Uri uri, @Nullable String overrideExtension, int preloadGeneration)
+      throws Exception {
+    Budget budget = new Budget(preloadGeneration);
+    @C.ContentType int type = Util.inferContentType(uri, overrideExtension);
+    switch (type) {
+      case C.TYPE_DASH:
+        DashManifest dashManifest = loadManifest(uri, new DashManifestParser(), budget);
+        if (dashManifest != null && dashManifest.getPeriodCount() > 0) {
+          preloadDashPeriod(dashManifest.getPeriod(0), budget);
+        }
+        break;
+      case C.TYPE_HLS:
+        HlsPlaylistParser playlistParser = new HlsPlaylistParser();
+        HlsPlaylist playlist = loadManifest(uri, playlistParser, budget);
+        if (playlist instanceof HlsMasterPlaylist) {
+          HlsMasterPlaylist masterPlaylist = (HlsMasterPlaylist) playlist;
+          playlist = masterPlaylist.variants.isEmpty() ? null : loadManifest(
+              UriUtil.resolveToUri(masterPlaylist.baseUri, masterPlaylist.variants.get(0).url),
+              playlistParser, budget);
+        }
+        if (playlist instanceof HlsMediaPlaylist) {
+          preloadHlsMediaPlaylist((HlsMediaPlaylist) playlist, budget);
+        }
+        break;
+      case C.TYPE_SS:
+        // Stream fragment urls need the track selection, so only the manifest is preloaded.
+        loadManifest(uri, new SsManifestParser(), budget);
+        break;
+      case C.TYPE_OTHER:
+        read(new DataSpec(uri, 0, budget.remaining, null), budget);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void preloadDashPeriod(Period period, Budget budget) throws Exception {
+    for (AdaptationSet adaptationSet : period.adaptationSets) {
+      if ((adaptationSet.type != C.TRACK_TYPE_VIDEO && adaptationSet.type != C.TRACK_TYPE_AUDIO)
+          || adaptationSet.representations.isEmpty()) {
+        continue;
+      }
+      for (Representation representation : adaptationSet.representations) {
+        read(representation.getInitializationUri(), representation.baseUrl, budget);
+      }
+      Representation representation = adaptationSet.representations.get(0);
+      DashSegmentIndex index = representation.getIndex();
+      if (index != null) {
+        long segmentNum = index.getFirstSegmentNum();
+        int segmentCount = index.getSegmentCount(C.TIME_UNSET);
+        long endSegmentNum = segmentCount == DashSegmentIndex.INDEX_UNBOUNDED
+            ? segmentNum + 1 : segmentNum + segmentCount;
+        long startTimeUs = index.getTimeUs(segmentNum);
+        while (segmentNum < endSegmentNum
+            && index.getTimeUs(segmentNum) - startTimeUs < maxMediaDurationUs
+            && budget.hasRemaining()) {
+          read(index.getSegmentUrl(segmentNum), representation.baseUrl, budget);
+          segmentNum++;
+        }
+      }
+    }
+  }
+
+  private void preloadHlsMediaPlaylist(HlsMediaPlaylist playlist, Budget budget) throws Exception {
+    HlsMediaPlaylist.Segment lastInitializationSegment = null;
+    for (HlsMediaPlaylist.Segment segment : playlist.segments) {
+      if (segment.relativeStartTimeUs >= maxMediaDurationUs || !budget.hasRemaining()) {
+        break;
+      }
+      if (segment.initializationSegment != null
+          && segment.initializationSegment != lastInitializationSegment) {
+        readHlsSegment(playlist, segment.initializationSegment, budget);
+        lastInitializationSegment = segment.initializationSegment;
+      }
+      readHlsSegment(playlist, segment, budget);
+    }
+  }
+
+  private void readHlsSegment(HlsMediaPlaylist playlist, HlsMediaPlaylist.Segment segment,
+                              Budget budget) throws Exception {
+    Uri uri = UriUtil.resolveToUri(playlist.baseUri, segment.url);
+    long length = segment.byterangeLength == C.LENGTH_UNSET
+        ? budget.remaining : Math.min(segment.byterangeLength, budget.remaining);
+    read(new DataSpec(uri, segment.byterangeOffset, length, null), budget);
+  }
+
+  private void read(@Nullable RangedUri rangedUri, String baseUrl, Budget budget)
+      throws Exception {
+    if (rangedUri == null) {
+      return;
+    }
+    long length = rangedUri.length == C.LENGTH_UNSET
+        ? budget.remaining : Math.min(rangedUri.length, budget.remaining);
+    read(new DataSpec(rangedUri.resolveUri(baseUrl), rangedUri.start, length, null), budget);
+  }
+
+  private void read(DataSpec dataSpec, Budget budget) throws Exception {
+    if (!budget.hasRemaining()) {
+      return;
+    }
+    DataSource dataSource = dataSourceFactory.createDataSource();
+    try {
+      dataSource.open(dataSpec);
+      int bytesRead = 0;
+      while (budget.hasRemaining() && bytesRead != C.RESULT_END_OF_INPUT) {
+        bytesRead = dataSource.read(scratch, 0, (int) Math.min(scratch.length, budget.remaining));
+        if (bytesRead != C.RESULT_END_OF_INPUT) {
+          budget.consume(bytesRead);
+        }
+      }
+    } finally {
+      Util.closeQuietly(dataSource);
+    }
+  }
+
+  @Nullable
+  private <T> T loadManifest(Uri uri, ParsingLoadable.Parser<? extends T> parser, Budget budget)
+      throws Exception {
+    if (!budget.hasRemaining()) {
+      return null;
+    }
+    ParsingLoadable<T> loadable = new ParsingLoadable<>(
+        manifestDataSourceFactory.createDataSource(), uri, C.DATA_TYPE_MANIFEST, parser);
+    loadable.load();
+    budget.consume(loadable.bytesLoaded());
+    return loadable.getResult();
+  }
+
+  private final class Budget {
+
+    private final int preloadGeneration;
+    private long remaining;
+
+    private Budget(int preloadGeneration) {
+      this.preloadGeneration = preloadGeneration;
+      remaining = byteBudget;
+    }
+
+    private boolean hasRemaining() {
+      return remaining > 0 && preloadGeneration == generation;
+    }
+
+    private void consume(long bytes) {
+      remaining -= bytes;
+      preloadedBytes += bytes;
+    }
+  }
+}
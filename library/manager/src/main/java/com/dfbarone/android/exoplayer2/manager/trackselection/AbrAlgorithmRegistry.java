@@ -0,0 +1,90 @@
+package com.dfbarone.android.exoplayer2.manager.trackselection;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
+import com.google.android.exoplayer2.trackselection.RandomTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps ABR algorithm names, as passed in an intent, to providers of the
+ * {@link TrackSelection.Factory} that implements them.
+ */
+public class AbrAlgorithmRegistry {
+
+  /*** Throughput based {@link AdaptiveTrackSelection}. */
+  public static final String ALGORITHM_DEFAULT = "default";
+  /*** {@link RandomTrackSelection}, for testing. */
+  public static final String ALGORITHM_RANDOM = "random";
+  /*** Buffer based {@link BufferBasedTrackSelection}. */
+  public static final String ALGORITHM_BOLA = "bola";
+  /*** {@link BufferBasedTrackSelection} capped by the throughput estimate while buffering up. */
+  public static final String ALGORITHM_HYBRID = "hybrid";
+
+  /*** Creates the {@link TrackSelection.Factory} of an algorithm for a new player. */
+  public interface Provider {
+
+    TrackSelection.Factory createTrackSelectionFactory();
+  }
+
+  private final Map<String, Provider> providers = new LinkedHashMap<>();
+
+  /*** Returns a registry with the default, random, bola and hybrid algorithms. */
+  public static AbrAlgorithmRegistry createDefault() {
+    AbrAlgorithmRegistry registry = new AbrAlgorithmRegistry();
+    registry.register(ALGORITHM_DEFAULT, new Provider() {
+      @Override
+      public TrackSelection.Factory createTrackSelectionFactory() {
+        return new AdaptiveTrackSelection.Factory();
+      }
+    });
+    registry.register(ALGORITHM_RANDOM, new Provider() {
+      @Override
+      public TrackSelection.Factory createTrackSelectionFactory() {
+        return new RandomTrackSelection.Factory();
+      }
+    });
+    registry.register(ALGORITHM_BOLA, new Provider() {
+      @Override
+      public TrackSelection.Factory createTrackSelectionFactory() {
+        return new BufferBasedTrackSelection.Factory();
+      }
+    });
+    registry.register(ALGORITHM_HYBRID, new Provider() {
+      @Override
+      public TrackSelection.Factory createTrackSelectionFactory() {
+        return new BufferBasedTrackSelection.Factory(/* throughputCapped= */ true);
+      }
+    });
+    return registry;
+  }
+
+  /*** Registers {@code provider} under {@code name}, replacing any previous one. */
+  public synchronized void register(String name, Provider provider) {
+    providers.put(name, provider);
+  }
+
+  public synchronized void unregister(String name) {
+    providers.remove(name);
+  }
+
+  public synchronized boolean contains(String name) {
+    return providers.containsKey(name);
+  }
+
+  public synchronized Set<String> getNames() {
+    return Collections.unmodifiableSet(new LinkedHashMap<>(providers).keySet());
+  }
+
+  /*** Returns a new factory for the algorithm called {@code name}, or null if there isn't one. */
+  @Nullable
+  public synchronized TrackSelection.Factory createTrackSelectionFactory(String name) {
+    Provider provider = providers.get(name);
+    return provider == null ? null : provider.createTrackSelectionFactory();
+  }
+}
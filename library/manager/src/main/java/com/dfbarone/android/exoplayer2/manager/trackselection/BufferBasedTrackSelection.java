@@ -0,0 +1,223 @@
+package com.dfbarone.android.exoplayer2.manager.trackselection;
+
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.trackselection.BaseTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+
+import java.util.List;
+
+/**
+ * A BOLA style {@link TrackSelection} that picks the track from the buffer level rather than from
+ * the throughput estimate, which keeps it from oscillating on networks with bursty throughput.
+ *
+ * <p>Each track gets a utility of {@code ln(bitrate / lowestBitrate) + 1}. The track maximizing
+ * {@code (v * (utility + gp) - buffer) / bitrate} is selected, where {@code v} and {@code gp} are
+ * chosen so that the lowest track is selected at the minimum buffer and the highest one at the
+ * target buffer. Until the buffer first reaches the minimum, tracks are picked from the throughput
+ * estimate so that startup doesn't always begin at the lowest quality.
+ *
+ * <p>In hybrid mode the selection is additionally capped by the throughput estimate while the
+ * buffer is below its target.
+ */
+public class BufferBasedTrackSelection extends BaseTrackSelection {
+
+  /*** Factory for {@link BufferBasedTrackSelection} instances. */
+  public static final class Factory implements TrackSelection.Factory {
+
+    private final boolean throughputCapped;
+    private final long minBufferMs;
+    private final long targetBufferMs;
+    private final float bandwidthFraction;
+
+    /*** Creates a factory for the pure buffer based algorithm. */
+    public Factory() {
+      this(false);
+    }
+
+    /*** Creates a factory for the pure buffer based or, if {@code throughputCapped}, the hybrid one. */
+    public Factory(boolean throughputCapped) {
+      this(throughputCapped, DEFAULT_MIN_BUFFER_MS, DEFAULT_TARGET_BUFFER_MS,
+          DEFAULT_BANDWIDTH_FRACTION);
+    }
+
+    /**
+     * @param throughputCapped Whether to cap selections by the throughput estimate while the buffer
+     *     is below {@code targetBufferMs}.
+     * @param minBufferMs The buffer level at and below which the lowest track is selected.
+     * @param targetBufferMs The buffer level from which the highest track is selected.
+     * @param bandwidthFraction The fraction of the throughput estimate considered available.
+     */
+    public Factory(boolean throughputCapped, long minBufferMs, long targetBufferMs,
+                   float bandwidthFraction) {
+      this.throughputCapped = throughputCapped;
+      this.minBufferMs = minBufferMs;
+      this.targetBufferMs = targetBufferMs;
+      this.bandwidthFraction = bandwidthFraction;
+    }
+
+    @Override
+    public BufferBasedTrackSelection createTrackSelection(TrackGroup group,
+                                                          BandwidthMeter bandwidthMeter,
+                                                          int... tracks) {
+      return new BufferBasedTrackSelection(group, tracks, bandwidthMeter, throughputCapped,
+          minBufferMs, targetBufferMs, bandwidthFraction, Clock.DEFAULT);
+    }
+  }
+
+  public static final long DEFAULT_MIN_BUFFER_MS = 10000;
+  public static final long DEFAULT_TARGET_BUFFER_MS = 25000;
+  public static final float DEFAULT_BANDWIDTH_FRACTION = 0.75f;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final boolean throughputCapped;
+  private final long minBufferUs;
+  private final long targetBufferUs;
+  private final float bandwidthFraction;
+  private final Clock clock;
+  private final double[] utilities;
+  private final double gp;
+  private final double v;
+
+  private int selectedIndex;
+  private int reason;
+  private boolean startupComplete;
+
+  public BufferBasedTrackSelection(TrackGroup group, int[] tracks, BandwidthMeter bandwidthMeter,
+                                   boolean throughputCapped, long minBufferMs, long targetBufferMs,
+                                   float bandwidthFraction, Clock clock) {
+    super(group, tracks);
+    this.bandwidthMeter = bandwidthMeter;
+    this.throughputCapped = throughputCapped;
+    this.minBufferUs = minBufferMs * 1000;
+    this.targetBufferUs = Math.max(targetBufferMs, minBufferMs + 1) * 1000;
+    this.bandwidthFraction = bandwidthFraction;
+    this.clock = clock;
+    double[] bitrates = new double[length];
+    for (int i = 0; i < length; i++) {
+      bitrates[i] = getBitrate(i);
+    }
+    utilities = computeUtilities(bitrates);
+    gp = computeGp(utilities[0], minBufferUs, targetBufferUs);
+    v = minBufferUs / (double) C.MICROS_PER_SECOND / gp;
+    selectedIndex = determineThroughputIndex(Long.MIN_VALUE);
+    reason = C.SELECTION_REASON_INITIAL;
+  }
+
+  @Override
+  public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
+                                  long availableDurationUs, List<? extends MediaChunk> queue,
+                                  MediaChunkIterator[] mediaChunkIterators) {
+    long nowMs = clock.elapsedRealtime();
+    if (bufferedDurationUs >= minBufferUs) {
+      startupComplete = true;
+    }
+    int newSelectedIndex;
+    if (!startupComplete) {
+      newSelectedIndex = determineThroughputIndex(nowMs);
+    } else {
+      newSelectedIndex = determineBufferIndex(bufferedDurationUs, nowMs);
+      if (throughputCapped && bufferedDurationUs < targetBufferUs) {
+        // Larger indices have lower bitrates.
+        newSelectedIndex = Math.max(newSelectedIndex, determineThroughputIndex(nowMs));
+      }
+    }
+    if (newSelectedIndex != selectedIndex) {
+      selectedIndex = newSelectedIndex;
+      reason = C.SELECTION_REASON_ADAPTIVE;
+    }
+  }
+
+  @Override
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  @Override
+  public int getSelectionReason() {
+    return reason;
+  }
+
+  @Override
+  @Nullable
+  public Object getSelectionData() {
+    return null;
+  }
+
+  // Internal methods
+
+  /*** Returns the non-blacklisted index with the best buffer based score. */
+  private int determineBufferIndex(long bufferedDurationUs, long nowMs) {
+    double bufferS = bufferedDurationUs / (double) C.MICROS_PER_SECOND;
+    int bestIndex = C.INDEX_UNSET;
+    double bestScore = 0;
+    for (int i = 0; i < length; i++) {
+      if (nowMs != Long.MIN_VALUE && isBlacklisted(i, nowMs)) {
+        continue;
+      }
+      double score = computeScore(utilities[i], getBitrate(i), v, gp, bufferS);
+      if (bestIndex == C.INDEX_UNSET || score > bestScore) {
+        bestIndex = i;
+        bestScore = score;
+      }
+    }
+    return bestIndex == C.INDEX_UNSET ? selectedIndex : bestIndex;
+  }
+
+  /*** Returns the highest non-blacklisted index that fits in the available throughput. */
+  private int determineThroughputIndex(long nowMs) {
+    long effectiveBitrate = (long) (bandwidthMeter.getBitrateEstimate() * bandwidthFraction);
+    int lowestBitrateNonBlacklistedIndex = 0;
+    for (int i = 0; i < length; i++) {
+      if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
+        Format format = getFormat(i);
+        if (format.bitrate <= effectiveBitrate) {
+          return i;
+        }
+        lowestBitrateNonBlacklistedIndex = i;
+      }
+    }
+    return lowestBitrateNonBlacklistedIndex;
+  }
+
+  private double getBitrate(int index) {
+    return Math.max(getFormat(index).bitrate, 1);
+  }
+
+  /**
+   * Returns the utility of each of {@code bitrates}, which are sorted by decreasing bitrate so that
+   * the last one is the lowest.
+   */
+  /* package */ static double[] computeUtilities(double[] bitrates) {
+    double[] utilities = new double[bitrates.length];
+    double lowestBitrate = bitrates[bitrates.length - 1];
+    for (int i = 0; i < bitrates.length; i++) {
+      utilities[i] = Math.log(bitrates[i] / lowestBitrate) + 1;
+    }
+    return utilities;
+  }
+
+  /**
+   * Returns the {@code gp} parameter that, with {@code v = minBufferS / gp}, selects the lowest
+   * track at the minimum buffer and the one with {@code highestUtility} at the target buffer.
+   */
+  /* package */ static double computeGp(double highestUtility, long minBufferUs,
+                                        long targetBufferUs) {
+    double gp = (highestUtility - 1) / ((double) targetBufferUs / minBufferUs - 1);
+    // With a single bitrate gp is 0, which would make every score infinite.
+    return gp > 0 ? gp : 1;
+  }
+
+  /*** Returns the buffer based score of a track. The track with the highest score is selected. */
+  /* package */ static double computeScore(double utility, double bitrate, double v, double gp,
+                                           double bufferS) {
+    return (v * (utility + gp) - bufferS) / bitrate;
+  }
+}
@@ -0,0 +1,171 @@
+package com.dfbarone.android.exoplayer2.manager.upstream;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.util.Util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A process wide, size bounded LRU cache of DASH, HLS and SmoothStreaming manifests keyed by uri.
+ *
+ * <p>Entries expire after a time to live. Live manifests (dynamic MPDs, HLS media playlists without
+ * an end tag and live SmoothStreaming manifests) are never cached, so they are always refreshed
+ * from the network. Thread safe.
+ */
+public final class ManifestCache {
+
+  public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+  public static final int DEFAULT_MAX_ENTRY_BYTES = 512 * 1024;
+  public static final long DEFAULT_TIME_TO_LIVE_MS = 5 * 60 * 1000;
+
+  private static final Pattern DASH_DYNAMIC = Pattern.compile("type\\s*=\\s*[\"']dynamic[\"']");
+  private static final Pattern SS_LIVE =
+      Pattern.compile("IsLive\\s*=\\s*[\"']true[\"']", Pattern.CASE_INSENSITIVE);
+
+  private static ManifestCache instance;
+
+  private final LinkedHashMap<String, Entry> entries;
+  private long maxBytes;
+  private int maxEntryBytes;
+  private long timeToLiveMs;
+  private long sizeBytes;
+  private long hitCount;
+  private long missCount;
+
+  public static synchronized ManifestCache getInstance() {
+    if (instance == null) {
+      instance = new ManifestCache(DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRY_BYTES,
+          DEFAULT_TIME_TO_LIVE_MS);
+    }
+    return instance;
+  }
+
+  public ManifestCache(long maxBytes, int maxEntryBytes, long timeToLiveMs) {
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+    this.timeToLiveMs = timeToLiveMs;
+    entries = new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true);
+  }
+
+  public synchronized void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    trimToSize();
+  }
+
+  public synchronized void setMaxEntryBytes(int maxEntryBytes) {
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  public synchronized int getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  public synchronized void setTimeToLiveMs(long timeToLiveMs) {
+    this.timeToLiveMs = timeToLiveMs;
+  }
+
+  /*** Returns the cached manifest for {@code uri}, or null on a miss. */
+  @Nullable
+  public Entry get(Uri uri) {
+    return get(uri.toString(), SystemClock.elapsedRealtime());
+  }
+
+  @Nullable
+  /* package */ synchronized Entry get(String key, long nowMs) {
+    Entry entry = entries.get(key);
+    if (entry != null && nowMs - entry.storedAtMs > timeToLiveMs) {
+      remove(key);
+      entry = null;
+    }
+    if (entry == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return entry;
+  }
+
+  /**
+   * Caches {@code data} as the manifest loaded from {@code uri}, unless it's live, unrecognized or
+   * too large. {@code finalUri} is the uri the data was actually read from after redirects.
+   */
+  public void put(Uri uri, Uri finalUri, byte[] data) {
+    put(uri.toString(), finalUri, data, SystemClock.elapsedRealtime());
+  }
+
+  /* package */ synchronized void put(String key, Uri finalUri, byte[] data, long nowMs) {
+    if (data.length > maxEntryBytes || data.length > maxBytes || !isCacheableManifest(data)) {
+      return;
+    }
+    remove(key);
+    entries.put(key, new Entry(finalUri, data, nowMs));
+    sizeBytes += data.length;
+    trimToSize();
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    sizeBytes = 0;
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  /*** Returns whether {@code data} is a recognized manifest that describes on demand content. */
+  public static boolean isCacheableManifest(byte[] data) {
+    String manifest = Util.fromUtf8Bytes(data);
+    if (manifest.startsWith("#EXTM3U") || manifest.startsWith("\uFEFF#EXTM3U")) {
+      // Master playlists don't change. Media playlists are only complete once they're ended.
+      return manifest.contains("#EXT-X-STREAM-INF") || manifest.contains("#EXT-X-ENDLIST");
+    } else if (manifest.contains("<MPD")) {
+      return !DASH_DYNAMIC.matcher(manifest).find();
+    } else if (manifest.contains("<SmoothStreamingMedia")) {
+      return !SS_LIVE.matcher(manifest).find();
+    }
+    return false;
+  }
+
+  private void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      sizeBytes -= entry.data.length;
+    }
+  }
+
+  private void trimToSize() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (sizeBytes > maxBytes && iterator.hasNext()) {
+      sizeBytes -= iterator.next().getValue().data.length;
+      iterator.remove();
+    }
+  }
+
+  /*** A cached manifest. */
+  public static final class Entry {
+
+    public final Uri uri;
+    public final byte[] data;
+    public final long storedAtMs;
+
+    private Entry(Uri uri, byte[] data, long storedAtMs) {
+      this.uri = uri;
+      this.data = data;
+      this.storedAtMs = storedAtMs;
+    }
+  }
+}
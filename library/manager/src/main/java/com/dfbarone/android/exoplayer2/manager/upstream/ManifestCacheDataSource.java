@@ -0,0 +1,171 @@
+package com.dfbarone.android.exoplayer2.manager.upstream;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A {@link DataSource} for manifests that serves whole-manifest requests from a
+ * {@link ManifestCache} and writes manifests it loads from upstream back to it.
+ */
+public final class ManifestCacheDataSource implements DataSource {
+
+  /**
+   * XML manifest parsers stop at the closing root tag. Up to this many trailing bytes are read on
+   * {@link #close()} to find out whether the manifest was complete.
+   */
+  private static final int MAX_TRAILING_BYTES = 4 * 1024;
+
+  /*** A {@link DataSource.Factory} for {@link ManifestCacheDataSource}s. */
+  public static final class Factory implements DataSource.Factory {
+
+    private final ManifestCache manifestCache;
+    private final DataSource.Factory upstreamFactory;
+
+    public Factory(DataSource.Factory upstreamFactory) {
+      this(ManifestCache.getInstance(), upstreamFactory);
+    }
+
+    public Factory(ManifestCache manifestCache, DataSource.Factory upstreamFactory) {
+      this.manifestCache = manifestCache;
+      this.upstreamFactory = upstreamFactory;
+    }
+
+    @Override
+    public ManifestCacheDataSource createDataSource() {
+      return new ManifestCacheDataSource(manifestCache, upstreamFactory.createDataSource());
+    }
+  }
+
+  private final ManifestCache manifestCache;
+  private final DataSource upstream;
+
+  @Nullable
+  private ManifestCache.Entry cachedEntry;
+  private int readPosition;
+  @Nullable
+  private Uri openedUri;
+  @Nullable
+  private ByteArrayOutputStream writeBuffer;
+  private long upstreamLength;
+
+  public ManifestCacheDataSource(ManifestCache manifestCache, DataSource upstream) {
+    this.manifestCache = manifestCache;
+    this.upstream = upstream;
+  }
+
+  @Override
+  public void addTransferListener(TransferListener transferListener) {
+    upstream.addTransferListener(transferListener);
+  }
+
+  @Override
+  public long open(DataSpec dataSpec) throws IOException {
+    openedUri = dataSpec.uri;
+    upstreamLength = C.LENGTH_UNSET;
+    boolean wholeManifest = dataSpec.position == 0 && dataSpec.length == C.LENGTH_UNSET;
+    if (wholeManifest) {
+      cachedEntry = manifestCache.get(dataSpec.uri);
+      if (cachedEntry != null) {
+        readPosition = 0;
+        return cachedEntry.data.length;
+      }
+      writeBuffer = new ByteArrayOutputStream();
+    }
+    upstreamLength = upstream.open(dataSpec);
+    return upstreamLength;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int readLength) throws IOException {
+    if (cachedEntry != null) {
+      int remaining = cachedEntry.data.length - readPosition;
+      if (remaining == 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      int bytesRead = Math.min(remaining, readLength);
+      System.arraycopy(cachedEntry.data, readPosition, buffer, offset, bytesRead);
+      readPosition += bytesRead;
+      return bytesRead;
+    }
+    int bytesRead = upstream.read(buffer, offset, readLength);
+    if (writeBuffer != null) {
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        storeManifest();
+      } else if (writeBuffer.size() + bytesRead > manifestCache.getMaxEntryBytes()) {
+        // Too large to cache. Stop copying.
+        writeBuffer = null;
+      } else {
+        writeBuffer.write(buffer, offset, bytesRead);
+        if (writeBuffer.size() == upstreamLength) {
+          storeManifest();
+        }
+      }
+    }
+    return bytesRead;
+  }
+
+  @Nullable
+  @Override
+  public Uri getUri() {
+    return cachedEntry != null ? cachedEntry.uri : upstream.getUri();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (writeBuffer != null && upstreamLength == C.LENGTH_UNSET) {
+        storeManifestIfOnlyWhitespaceRemains();
+      }
+    } finally {
+      writeBuffer = null;
+      openedUri = null;
+      if (cachedEntry != null) {
+        cachedEntry = null;
+      } else {
+        upstream.close();
+      }
+    }
+  }
+
+  private void storeManifest() {
+    Uri finalUri = upstream.getUri();
+    manifestCache.put(openedUri, finalUri != null ? finalUri : openedUri,
+        writeBuffer.toByteArray());
+    writeBuffer = null;
+  }
+
+  /**
+   * Reads what the parser left unread. If that is only whitespace up to the end of input, the
+   * manifest was read completely and is stored. Read errors just mean it isn't cached.
+   */
+  private void storeManifestIfOnlyWhitespaceRemains() {
+    byte[] trailingBytes = new byte[MAX_TRAILING_BYTES];
+    int trailingLength = 0;
+    try {
+      while (trailingLength < MAX_TRAILING_BYTES) {
+        int bytesRead =
+            upstream.read(trailingBytes, trailingLength, MAX_TRAILING_BYTES - trailingLength);
+        if (bytesRead == C.RESULT_END_OF_INPUT) {
+          for (int i = 0; i < trailingLength; i++) {
+            if (!Character.isWhitespace(trailingBytes[i])) {
+              return;
+            }
+          }
+          storeManifest();
+          return;
+        }
+        trailingLength += bytesRead;
+      }
+    } catch (IOException e) {
+      // Not cached.
+    }
+  }
+}
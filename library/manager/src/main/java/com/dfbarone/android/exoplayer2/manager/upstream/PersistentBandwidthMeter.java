@@ -0,0 +1,186 @@
+package com.dfbarone.android.exoplayer2.manager.upstream;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Pair;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A process wide {@link BandwidthMeter} that keeps one {@link DefaultBandwidthMeter} per network
+ * type and persists their estimates, so that new sessions, including the first one after a
+ * restart, start from what was last measured on the current kind of network.
+ *
+ * <p>Estimates are saved at most every ten seconds. Network types without a saved
+ * estimate use {@link DefaultBandwidthMeter}'s country and network type defaults.
+ *
+ * <p>The current network type is cached, and updated by connectivity broadcasts and whenever a
+ * network transfer starts, so that {@link #getBitrateEstimate()} doesn't query the connectivity
+ * service on every track selection.
+ */
+public final class PersistentBandwidthMeter implements BandwidthMeter, TransferListener {
+
+  private static final String PREFERENCES_NAME = "bandwidth_estimates";
+  private static final String ESTIMATE_PREFIX = "estimate:";
+  private static final long SAVE_INTERVAL_MS = 10000;
+
+  private static PersistentBandwidthMeter instance;
+
+  private final Context context;
+  private final SharedPreferences preferences;
+  private final Map<Integer, DefaultBandwidthMeter> meters = new HashMap<>();
+  private final Map<DataSource, Integer> transferNetworkTypes = new IdentityHashMap<>();
+  private final Set<Integer> measuredNetworkTypes = new HashSet<>();
+  private final List<Pair<Handler, EventListener>> eventListeners = new ArrayList<>();
+  private long lastSaveMs = C.TIME_UNSET;
+  private volatile @C.NetworkType int networkType;
+
+  public static synchronized PersistentBandwidthMeter getInstance(Context context) {
+    if (instance == null) {
+      instance = new PersistentBandwidthMeter(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private PersistentBandwidthMeter(Context context) {
+    this.context = context;
+    preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    networkType = Util.getNetworkType(context);
+    // The instance lives as long as the process, so the receiver is never unregistered.
+    context.registerReceiver(new BroadcastReceiver() {
+      @Override
+      public void onReceive(Context context, Intent intent) {
+        networkType = Util.getNetworkType(context);
+      }
+    }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+  }
+
+  /*** Returns the estimate for the current network type. */
+  @Override
+  public synchronized long getBitrateEstimate() {
+    return getMeter(networkType).getBitrateEstimate();
+  }
+
+  /*** Returns the persisted estimate for {@code networkType}, or {@link C#LENGTH_UNSET}. */
+  public synchronized long getSavedBitrateEstimate(@C.NetworkType int networkType) {
+    return preferences.getLong(ESTIMATE_PREFIX + networkType, C.LENGTH_UNSET);
+  }
+
+  @Override
+  public TransferListener getTransferListener() {
+    return this;
+  }
+
+  @Override
+  public synchronized void addEventListener(Handler eventHandler, EventListener eventListener) {
+    eventListeners.add(Pair.create(eventHandler, eventListener));
+    for (DefaultBandwidthMeter meter : meters.values()) {
+      meter.addEventListener(eventHandler, eventListener);
+    }
+  }
+
+  @Override
+  public synchronized void removeEventListener(EventListener eventListener) {
+    for (int i = eventListeners.size() - 1; i >= 0; i--) {
+      if (eventListeners.get(i).second == eventListener) {
+        eventListeners.remove(i);
+      }
+    }
+    for (DefaultBandwidthMeter meter : meters.values()) {
+      meter.removeEventListener(eventListener);
+    }
+  }
+
+  // TransferListener implementation. Each transfer sticks to the meter of the network it started on.
+
+  @Override
+  public synchronized void onTransferInitializing(DataSource source, DataSpec dataSpec,
+                                                  boolean isNetwork) {
+    // Do nothing.
+  }
+
+  @Override
+  public synchronized void onTransferStart(DataSource source, DataSpec dataSpec,
+                                           boolean isNetwork) {
+    if (isNetwork) {
+      // Catches changes that happened since the last broadcast, which may still be in flight.
+      networkType = Util.getNetworkType(context);
+    }
+    int transferNetworkType = networkType;
+    transferNetworkTypes.put(source, transferNetworkType);
+    getMeter(transferNetworkType).onTransferStart(source, dataSpec, isNetwork);
+  }
+
+  @Override
+  public synchronized void onBytesTransferred(DataSource source, DataSpec dataSpec,
+                                              boolean isNetwork, int bytesTransferred) {
+    Integer networkType = transferNetworkTypes.get(source);
+    if (networkType != null) {
+      getMeter(networkType).onBytesTransferred(source, dataSpec, isNetwork, bytesTransferred);
+    }
+  }
+
+  @Override
+  public synchronized void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+    Integer networkType = transferNetworkTypes.remove(source);
+    if (networkType != null) {
+      getMeter(networkType).onTransferEnd(source, dataSpec, isNetwork);
+      if (isNetwork && networkType != C.NETWORK_TYPE_OFFLINE) {
+        measuredNetworkTypes.add(networkType);
+        maybeSaveEstimates();
+      }
+    }
+  }
+
+  // Internal methods
+
+  private DefaultBandwidthMeter getMeter(int networkType) {
+    DefaultBandwidthMeter meter = meters.get(networkType);
+    if (meter == null) {
+      DefaultBandwidthMeter.Builder builder = new DefaultBandwidthMeter.Builder(context);
+      long savedEstimate = getSavedBitrateEstimate(networkType);
+      if (savedEstimate != C.LENGTH_UNSET) {
+        builder.setInitialBitrateEstimate(savedEstimate);
+      }
+      meter = builder.build();
+      for (Pair<Handler, EventListener> eventListener : eventListeners) {
+        meter.addEventListener(eventListener.first, eventListener.second);
+      }
+      meters.put(networkType, meter);
+    }
+    return meter;
+  }
+
+  private void maybeSaveEstimates() {
+    long nowMs = SystemClock.elapsedRealtime();
+    if (lastSaveMs != C.TIME_UNSET && nowMs - lastSaveMs < SAVE_INTERVAL_MS) {
+      return;
+    }
+    lastSaveMs = nowMs;
+    SharedPreferences.Editor editor = preferences.edit();
+    for (int networkType : measuredNetworkTypes) {
+      editor.putLong(ESTIMATE_PREFIX + networkType, getMeter(networkType).getBitrateEstimate());
+    }
+    editor.apply();
+  }
+}
@@ -0,0 +1,108 @@
+package com.dfbarone.android.exoplayer2.manager.upstream;
+
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.FileDataSource;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.upstream.cache.Cache;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSink;
+import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DataSource.Factory} that reads through a streaming {@link Cache} and writes everything
+ * it fetches from upstream back into it, so rewinds and replays are served locally.
+ *
+ * <p>The cache should use a size bounded evictor such as
+ * {@link com.google.android.exoplayer2.upstream.cache.LeastRecentlyUsedCacheEvictor}. The factory
+ * counts bytes served from the cache and from upstream so the cache can be sized.
+ */
+public final class StreamingCacheDataSourceFactory implements DataSource.Factory {
+
+  public static final long DEFAULT_MAX_CACHE_FILE_SIZE = 2 * 1024 * 1024;
+
+  private final Cache cache;
+  private final DataSource.Factory upstreamFactory;
+  private final long maxCacheFileSize;
+  private final AtomicLong cachedBytesRead = new AtomicLong();
+  private final AtomicLong upstreamBytesRead = new AtomicLong();
+  private final TransferListener cacheReadListener = new ByteCountingListener(cachedBytesRead);
+  private final TransferListener upstreamListener = new ByteCountingListener(upstreamBytesRead);
+
+  public StreamingCacheDataSourceFactory(Cache cache, DataSource.Factory upstreamFactory) {
+    this(cache, upstreamFactory, DEFAULT_MAX_CACHE_FILE_SIZE);
+  }
+
+  public StreamingCacheDataSourceFactory(Cache cache, DataSource.Factory upstreamFactory,
+                                         long maxCacheFileSize) {
+    this.cache = cache;
+    this.upstreamFactory = upstreamFactory;
+    this.maxCacheFileSize = maxCacheFileSize;
+  }
+
+  @Override
+  public CacheDataSource createDataSource() {
+    DataSource upstream = upstreamFactory.createDataSource();
+    upstream.addTransferListener(upstreamListener);
+    FileDataSource cacheReadDataSource = new FileDataSource();
+    cacheReadDataSource.addTransferListener(cacheReadListener);
+    return new CacheDataSource(
+        cache,
+        upstream,
+        cacheReadDataSource,
+        new CacheDataSink(cache, maxCacheFileSize),
+        CacheDataSource.FLAG_IGNORE_CACHE_ON_ERROR,
+        /* eventListener= */ null);
+  }
+
+  public Cache getCache() {
+    return cache;
+  }
+
+  /*** Bytes served from the streaming cache, i.e. bytes that didn't have to be fetched again. */
+  public long getCachedBytesRead() {
+    return cachedBytesRead.get();
+  }
+
+  public long getUpstreamBytesRead() {
+    return upstreamBytesRead.get();
+  }
+
+  /*** Fraction of all bytes read that were served from the cache. */
+  public float getHitRatio() {
+    long cached = cachedBytesRead.get();
+    long total = cached + upstreamBytesRead.get();
+    return total == 0 ? 0f : (float) cached / total;
+  }
+
+  private static final class ByteCountingListener implements TransferListener {
+
+    private final AtomicLong counter;
+
+    private ByteCountingListener(AtomicLong counter) {
+      this.counter = counter;
+    }
+
+    @Override
+    public void onTransferInitializing(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onTransferStart(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      // Do nothing.
+    }
+
+    @Override
+    public void onBytesTransferred(DataSource source, DataSpec dataSpec, boolean isNetwork,
+                                   int bytesTransferred) {
+      counter.addAndGet(bytesTransferred);
+    }
+
+    @Override
+    public void onTransferEnd(DataSource source, DataSpec dataSpec, boolean isNetwork) {
+      // Do nothing.
+    }
+  }
+}
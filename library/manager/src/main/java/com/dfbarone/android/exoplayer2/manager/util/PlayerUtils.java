@@ -6,6 +6,9 @@ import android.view.View;
 
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.drm.DrmSession;
+import com.google.android.exoplayer2.drm.KeysExpiredException;
+import com.google.android.exoplayer2.mediacodec.MediaCodecRenderer;
 import com.google.android.exoplayer2.source.BehindLiveWindowException;
 import com.google.android.exoplayer2.source.ExtractorMediaSource;
 import com.google.android.exoplayer2.source.MediaSource;
@@ -15,12 +18,99 @@ import com.google.android.exoplayer2.source.hls.HlsMediaSource;
 import com.google.android.exoplayer2.source.smoothstreaming.DefaultSsChunkSource;
 import com.google.android.exoplayer2.source.smoothstreaming.SsMediaSource;
 import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
 import com.google.android.exoplayer2.util.Util;
 
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 
 public class PlayerUtils {
 
+  // Error categories returned by classifyError().
+  public static final int ERROR_CATEGORY_OTHER = 0;
+  /*** The host name could not be resolved. */
+  public static final int ERROR_CATEGORY_DNS = 1;
+  /*** Connecting to, or reading from, the server timed out or was refused. */
+  public static final int ERROR_CATEGORY_CONNECT_TIMEOUT = 2;
+  /*** Any other network error, e.g. a dropped connection. */
+  public static final int ERROR_CATEGORY_NETWORK = 3;
+  /*** The server answered with a 4xx response code. */
+  public static final int ERROR_CATEGORY_HTTP_4XX = 4;
+  /*** The server answered with a 5xx response code. */
+  public static final int ERROR_CATEGORY_HTTP_5XX = 5;
+  /*** A decoder could not be initialized or failed while decoding. */
+  public static final int ERROR_CATEGORY_DECODER = 6;
+  /*** A drm session could not be opened, or its keys expired. */
+  public static final int ERROR_CATEGORY_DRM = 7;
+  /*** Playback fell behind the live window. */
+  public static final int ERROR_CATEGORY_BEHIND_LIVE_WINDOW = 8;
+
+  /**
+   * Maps {@code e} to one of the ERROR_CATEGORY_* constants by walking its cause chain. Drm errors
+   * take precedence, since they are often wrapped in source or renderer errors.
+   */
+  public static int classifyError(ExoPlaybackException e) {
+    if (isDrmError(e)) {
+      return ERROR_CATEGORY_DRM;
+    }
+    if (e.type == ExoPlaybackException.TYPE_RENDERER) {
+      return ERROR_CATEGORY_DECODER;
+    }
+    if (e.type != ExoPlaybackException.TYPE_SOURCE) {
+      return ERROR_CATEGORY_OTHER;
+    }
+    int category = ERROR_CATEGORY_OTHER;
+    Throwable cause = e.getSourceException();
+    while (cause != null) {
+      if (cause instanceof BehindLiveWindowException) {
+        return ERROR_CATEGORY_BEHIND_LIVE_WINDOW;
+      } else if (cause instanceof UnknownHostException) {
+        return ERROR_CATEGORY_DNS;
+      } else if (cause instanceof SocketTimeoutException || cause instanceof ConnectException) {
+        return ERROR_CATEGORY_CONNECT_TIMEOUT;
+      } else if (cause instanceof HttpDataSource.InvalidResponseCodeException) {
+        int responseCode = ((HttpDataSource.InvalidResponseCodeException) cause).responseCode;
+        if (responseCode >= 400 && responseCode < 500) {
+          return ERROR_CATEGORY_HTTP_4XX;
+        } else if (responseCode >= 500 && responseCode < 600) {
+          return ERROR_CATEGORY_HTTP_5XX;
+        }
+        category = ERROR_CATEGORY_NETWORK;
+      } else if (cause instanceof MediaCodecRenderer.DecoderInitializationException) {
+        return ERROR_CATEGORY_DECODER;
+      } else if (cause instanceof HttpDataSource.HttpDataSourceException) {
+        // Keep looking, the underlying cause is more specific.
+        category = ERROR_CATEGORY_NETWORK;
+      }
+      cause = cause.getCause();
+    }
+    return category;
+  }
+
+  public static String getErrorCategoryName(int category) {
+    switch (category) {
+      case ERROR_CATEGORY_DNS:
+        return "dns";
+      case ERROR_CATEGORY_CONNECT_TIMEOUT:
+        return "connect_timeout";
+      case ERROR_CATEGORY_NETWORK:
+        return "network";
+      case ERROR_CATEGORY_HTTP_4XX:
+        return "http_4xx";
+      case ERROR_CATEGORY_HTTP_5XX:
+        return "http_5xx";
+      case ERROR_CATEGORY_DECODER:
+        return "decoder";
+      case ERROR_CATEGORY_DRM:
+        return "drm";
+      case ERROR_CATEGORY_BEHIND_LIVE_WINDOW:
+        return "behind_live_window";
+      default:
+        return "other";
+    }
+  }
+
   public static boolean isBehindLiveWindow(ExoPlaybackException e) {
     if (e.type != ExoPlaybackException.TYPE_SOURCE) {
       return false;
@@ -49,6 +139,18 @@ public class PlayerUtils {
     return false;
   }
 
+  public static boolean isDrmError(ExoPlaybackException e) {
+    Throwable cause = e.getCause();
+    while (cause != null) {
+      if (cause instanceof DrmSession.DrmSessionException
+          || cause instanceof KeysExpiredException) {
+        return true;
+      }
+      cause = cause.getCause();
+    }
+    return false;
+  }
+
   public static MediaSource buildSimpleMediaSource(DataSource.Factory mediaDataSourceFactory,
                                                    DataSource.Factory dataSourceFactory,
                                                    Uri uri, @Nullable String overrideExtension) {
@@ -0,0 +1,85 @@
+package com.dfbarone.android.exoplayer2.manager;
+
+import com.dfbarone.android.exoplayer2.manager.util.PlayerUtils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ErrorRecoveryPolicyTest {
+
+  private final ErrorRecoveryPolicy policy = new ErrorRecoveryPolicy();
+
+  @Test
+  public void getAction_networkErrors_retryThenFallBackToCacheThenGiveUp() {
+    int[] categories = new int[] {PlayerUtils.ERROR_CATEGORY_DNS,
+        PlayerUtils.ERROR_CATEGORY_CONNECT_TIMEOUT, PlayerUtils.ERROR_CATEGORY_NETWORK,
+        PlayerUtils.ERROR_CATEGORY_HTTP_5XX};
+    for (int category : categories) {
+      for (int attempt = 0; attempt < ErrorRecoveryPolicy.DEFAULT_MAX_NETWORK_RETRIES; attempt++) {
+        assertEquals(ErrorRecoveryPolicy.ACTION_RETRY, policy.getAction(category, attempt));
+      }
+      assertEquals(ErrorRecoveryPolicy.ACTION_CACHE_FALLBACK,
+          policy.getAction(category, ErrorRecoveryPolicy.DEFAULT_MAX_NETWORK_RETRIES));
+      assertEquals(ErrorRecoveryPolicy.ACTION_NONE,
+          policy.getAction(category, ErrorRecoveryPolicy.DEFAULT_MAX_NETWORK_RETRIES + 1));
+    }
+  }
+
+  @Test
+  public void getAction_http4xx_fallsBackToCacheWithoutRetrying() {
+    assertEquals(ErrorRecoveryPolicy.ACTION_CACHE_FALLBACK,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_HTTP_4XX, 0));
+    assertEquals(ErrorRecoveryPolicy.ACTION_NONE,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_HTTP_4XX, 1));
+  }
+
+  @Test
+  public void getAction_decoderAndDrmErrors_retryOnce() {
+    assertEquals(ErrorRecoveryPolicy.ACTION_RETRY,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_DECODER, 0));
+    assertEquals(ErrorRecoveryPolicy.ACTION_NONE,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_DECODER, 1));
+    assertEquals(ErrorRecoveryPolicy.ACTION_RETRY,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_DRM, 0));
+    assertEquals(ErrorRecoveryPolicy.ACTION_NONE,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_DRM, 1));
+  }
+
+  @Test
+  public void getAction_otherErrors_areNotRecoveredFrom() {
+    assertEquals(ErrorRecoveryPolicy.ACTION_NONE,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_OTHER, 0));
+    assertEquals(ErrorRecoveryPolicy.ACTION_NONE,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_BEHIND_LIVE_WINDOW, 0));
+  }
+
+  @Test
+  public void getAction_customMaxNetworkRetries() {
+    ErrorRecoveryPolicy policy = new ErrorRecoveryPolicy(1, 100, 1000);
+
+    assertEquals(ErrorRecoveryPolicy.ACTION_RETRY,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_NETWORK, 0));
+    assertEquals(ErrorRecoveryPolicy.ACTION_CACHE_FALLBACK,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_NETWORK, 1));
+    assertEquals(ErrorRecoveryPolicy.ACTION_NONE,
+        policy.getAction(PlayerUtils.ERROR_CATEGORY_NETWORK, 2));
+  }
+
+  @Test
+  public void getRetryDelayMs_doublesUpToMaximum() {
+    assertEquals(1000, policy.getRetryDelayMs(0));
+    assertEquals(2000, policy.getRetryDelayMs(1));
+    assertEquals(8000, policy.getRetryDelayMs(3));
+    assertEquals(16000, policy.getRetryDelayMs(4));
+    assertEquals(16000, policy.getRetryDelayMs(5));
+  }
+
+  @Test
+  public void getRetryDelayMs_manyAttempts_doesNotOverflow() {
+    assertEquals(16000, policy.getRetryDelayMs(100));
+    // Without a maximum, the delay stops doubling after 16 attempts rather than overflowing.
+    assertEquals(1000L << 16,
+        new ErrorRecoveryPolicy(4, 1000, Long.MAX_VALUE).getRetryDelayMs(100));
+  }
+}
@@ -0,0 +1,191 @@
+package com.dfbarone.android.exoplayer2.manager;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.Nullable;
+
+import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.android.exoplayer2.source.MediaSource;
+import com.google.android.exoplayer2.ui.PlayerView;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class PlayerManagerPoolTest {
+
+  private FakePlayerFactory playerFactory;
+  private PlayerManagerPool pool;
+
+  @Before
+  public void setUp() {
+    playerFactory = new FakePlayerFactory();
+    pool = new PlayerManagerPool(mock(Context.class), new FakeMediaSourceBuilder(),
+        /* maxVideoDecoders= */ 2, playerFactory);
+  }
+
+  @Test
+  public void preload_withinBudget_preparesWithoutEvicting() {
+    assertTrue(pool.preload("a", null, null));
+    assertTrue(pool.preload("b", null, null));
+
+    assertEquals(2, pool.getPreparedCount());
+    assertEquals(2, playerFactory.players.size());
+    verify(playerFactory.players.get(0), never()).stop(true);
+  }
+
+  @Test
+  public void preload_overBudget_evictsLeastRecentlyUsedAndReusesItsPlayer() {
+    pool.preload("a", null, null);
+    pool.preload("b", null, null);
+    SimpleExoPlayer playerA = playerFactory.players.get(0);
+
+    assertTrue(pool.preload("c", null, null));
+
+    assertNull(pool.getPlayer("a"));
+    verify(playerA).stop(true);
+    assertSame(playerA, pool.getPlayer("c"));
+    assertEquals(2, pool.getPreparedCount());
+    assertEquals(2, pool.getPlayersCreated());
+  }
+
+  @Test
+  public void preload_whileEveryDecoderIsPlaying_fails() {
+    pool.acquire("a", null, null, mock(PlayerView.class));
+    pool.acquire("b", null, null, mock(PlayerView.class));
+
+    assertFalse(pool.preload("c", null, null));
+
+    assertNull(pool.getPlayer("c"));
+    assertEquals(2, pool.getPreparedCount());
+  }
+
+  @Test
+  public void acquire_overBudget_evictsPausedItemBeforePlayingOnes() {
+    pool.acquire("a", null, null, mock(PlayerView.class));
+    pool.acquire("b", null, null, mock(PlayerView.class));
+    SimpleExoPlayer playerB = playerFactory.players.get(1);
+    pool.pause("b");
+
+    pool.acquire("c", null, null, mock(PlayerView.class));
+
+    // a is older, but still playing.
+    assertNotNull(pool.getPlayer("a"));
+    assertNull(pool.getPlayer("b"));
+    verify(playerB).stop(true);
+    assertSame(playerB, pool.getPlayer("c"));
+  }
+
+  @Test
+  public void acquire_overBudgetWithEveryItemPlaying_evictsLeastRecentlyUsed() {
+    pool.acquire("a", null, null, mock(PlayerView.class));
+    pool.acquire("b", null, null, mock(PlayerView.class));
+    SimpleExoPlayer playerA = playerFactory.players.get(0);
+
+    pool.acquire("c", null, null, mock(PlayerView.class));
+
+    assertNull(pool.getPlayer("a"));
+    verify(playerA).stop(true);
+    assertSame(playerA, pool.getPlayer("c"));
+    assertEquals(2, pool.getPlayersCreated());
+  }
+
+  @Test
+  public void acquire_inViewOfAnotherItem_pausesThatItemAndMakesItEvictableFirst() {
+    PlayerView playerView = mock(PlayerView.class);
+    pool.acquire("a", null, null, mock(PlayerView.class));
+    pool.acquire("b", null, null, playerView);
+    SimpleExoPlayer playerB = playerFactory.players.get(1);
+
+    pool.acquire("c", null, null, playerView);
+
+    verify(playerB).setPlayWhenReady(false);
+    verify(playerB, never()).stop(true);
+
+    pool.acquire("d", null, null, mock(PlayerView.class));
+
+    // b lost its view to c, so it is stopped rather than c, which is playing.
+    assertNull(pool.getPlayer("b"));
+    verify(playerB).stop(true);
+    assertNotNull(pool.getPlayer("c"));
+  }
+
+  @Test
+  public void acquire_preloadedItem_countsHit() {
+    pool.preload("a", null, null);
+
+    SimpleExoPlayer player = pool.acquire("a", null, null, mock(PlayerView.class));
+    pool.acquire("b", null, null, mock(PlayerView.class));
+
+    assertSame(pool.getPlayer("a"), player);
+    verify(player).setPlayWhenReady(true);
+    assertEquals(1, pool.getHitCount());
+    assertEquals(1, pool.getMissCount());
+    assertEquals(0.5f, pool.getHitRate(), 0);
+  }
+
+  @Test
+  public void release_keepsPlayerForNextItem() {
+    pool.preload("a", null, null);
+    SimpleExoPlayer playerA = pool.getPlayer("a");
+
+    pool.release("a");
+    pool.preload("b", null, null);
+
+    verify(playerA).stop(true);
+    verify(playerA, never()).release();
+    assertSame(playerA, pool.getPlayer("b"));
+    assertEquals(1, pool.getPlayersCreated());
+  }
+
+  @Test
+  public void releaseAll_releasesPreparedAndIdlePlayers() {
+    pool.prewarm(2);
+    pool.preload("a", null, null);
+
+    pool.releaseAll();
+
+    assertEquals(0, pool.getPreparedCount());
+    assertEquals(2, playerFactory.players.size());
+    for (SimpleExoPlayer player : playerFactory.players) {
+      verify(player).release();
+    }
+  }
+
+  private static final class FakePlayerFactory implements PlayerManagerPool.PlayerFactory {
+
+    private final List<SimpleExoPlayer> players = new ArrayList<>();
+
+    @Override
+    public SimpleExoPlayer createPlayer(Context context) {
+      SimpleExoPlayer player = mock(SimpleExoPlayer.class);
+      players.add(player);
+      return player;
+    }
+  }
+
+  private static final class FakeMediaSourceBuilder implements PlayerManager.MediaSourceBuilder {
+
+    @Override
+    public MediaSource buildMediaSource(Uri uri) {
+      return mock(MediaSource.class);
+    }
+
+    @Override
+    public MediaSource buildMediaSource(Uri uri, @Nullable String overrideExtension) {
+      return mock(MediaSource.class);
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.dfbarone.android.exoplayer2.manager.analytics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlightRecorderTest {
+
+  @Test
+  public void snapshot_beforeWrapAround_returnsAllEventsOldestFirst() {
+    FlightRecorder recorder = new FlightRecorder(4);
+    recordEvents(recorder, 0, 3);
+
+    FlightRecorder.Snapshot snapshot = takeSnapshot(recorder);
+
+    assertEquals(3, snapshot.getEventCount());
+    assertEvents(snapshot, 0);
+  }
+
+  @Test
+  public void snapshot_afterWrapAround_returnsMostRecentEventsOldestFirst() {
+    FlightRecorder recorder = new FlightRecorder(4);
+    recordEvents(recorder, 0, 10);
+
+    FlightRecorder.Snapshot snapshot = takeSnapshot(recorder);
+
+    // The oldest slot is the one the next record call writes, so it may be torn and is dropped.
+    assertEquals(3, snapshot.getEventCount());
+    assertEvents(snapshot, 7);
+  }
+
+  @Test
+  public void snapshot_decodesAllFields() {
+    FlightRecorder recorder = new FlightRecorder(2);
+    recorder.record(100, FlightRecorder.TYPE_LOAD_COMPLETED, 3, 5000, (2L << 32) | 1, 4096);
+
+    FlightRecorder.Snapshot snapshot = takeSnapshot(recorder);
+
+    assertEquals(1, snapshot.getEventCount());
+    assertEquals(100, snapshot.getTimestampMs(0));
+    assertEquals(FlightRecorder.TYPE_LOAD_COMPLETED, snapshot.getType(0));
+    assertEquals(3, snapshot.getWindowIndex(0));
+    assertEquals(5000, snapshot.getPositionMs(0));
+    assertEquals((2L << 32) | 1, snapshot.getArg1(0));
+    assertEquals(4096, snapshot.getArg2(0));
+    assertEquals("100ms loadCompleted window=3 pos=5000 2/1 4096\n", snapshot.toString());
+  }
+
+  @Test
+  public void snapshot_withWritesDuringCopy_dropsOverwrittenEntries() {
+    FlightRecorder recorder = new FlightRecorder(4);
+    recordEvents(recorder, 0, 6);
+    long endCount = recorder.getWriteCount();
+    long[] copy = recorder.copyEvents();
+    // Two entries are written while copying, replacing events 2 and 3, and a third may be in
+    // progress, replacing event 4.
+    recordEvents(recorder, 6, 2);
+
+    FlightRecorder.Snapshot snapshot =
+        recorder.createSnapshot(0, copy, endCount, recorder.getWriteCount());
+
+    assertEquals(1, snapshot.getEventCount());
+    assertEvents(snapshot, 5);
+  }
+
+  @Test
+  public void snapshot_withWholeRingOverwrittenDuringCopy_isEmpty() {
+    FlightRecorder recorder = new FlightRecorder(4);
+    recordEvents(recorder, 0, 4);
+    long endCount = recorder.getWriteCount();
+    long[] copy = recorder.copyEvents();
+    recordEvents(recorder, 4, 4);
+
+    FlightRecorder.Snapshot snapshot =
+        recorder.createSnapshot(0, copy, endCount, recorder.getWriteCount());
+
+    assertEquals(0, snapshot.getEventCount());
+  }
+
+  @Test
+  public void snapshot_empty() {
+    FlightRecorder.Snapshot snapshot = takeSnapshot(new FlightRecorder(4));
+
+    assertEquals(0, snapshot.getEventCount());
+    assertEquals("", snapshot.toString());
+  }
+
+  private static void recordEvents(FlightRecorder recorder, int firstEvent, int eventCount) {
+    for (int i = firstEvent; i < firstEvent + eventCount; i++) {
+      recorder.record(i, FlightRecorder.TYPE_STATE_CHANGED, i, i * 10, i, -i);
+    }
+  }
+
+  private static FlightRecorder.Snapshot takeSnapshot(FlightRecorder recorder) {
+    long endCount = recorder.getWriteCount();
+    return recorder.createSnapshot(0, recorder.copyEvents(), endCount, recorder.getWriteCount());
+  }
+
+  /*** Asserts that the snapshot holds consecutive events, starting with {@code firstEvent}. */
+  private static void assertEvents(FlightRecorder.Snapshot snapshot, int firstEvent) {
+    for (int i = 0; i < snapshot.getEventCount(); i++) {
+      int event = firstEvent + i;
+      assertEquals(event, snapshot.getTimestampMs(i));
+      assertEquals(event, snapshot.getWindowIndex(i));
+      assertEquals(event * 10, snapshot.getPositionMs(i));
+      assertEquals(event, snapshot.getArg1(i));
+      assertEquals(-event, snapshot.getArg2(i));
+    }
+  }
+}
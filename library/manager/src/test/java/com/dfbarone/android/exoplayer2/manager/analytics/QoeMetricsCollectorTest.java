@@ -0,0 +1,45 @@
+package com.dfbarone.android.exoplayer2.manager.analytics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class QoeMetricsCollectorTest {
+
+  @Test
+  public void getRebufferBucket_boundsAreInclusive() {
+    assertEquals(0, QoeMetricsCollector.getRebufferBucket(0));
+    assertEquals(0, QoeMetricsCollector.getRebufferBucket(250));
+    assertEquals(1, QoeMetricsCollector.getRebufferBucket(251));
+    assertEquals(2, QoeMetricsCollector.getRebufferBucket(1000));
+    assertEquals(5, QoeMetricsCollector.getRebufferBucket(10000));
+  }
+
+  @Test
+  public void getRebufferBucket_overLastBound_isLastBucket() {
+    int lastBucket = QoeMetricsCollector.REBUFFER_BUCKET_BOUNDS_MS.length;
+    assertEquals(lastBucket, QoeMetricsCollector.getRebufferBucket(10001));
+    assertEquals(lastBucket, QoeMetricsCollector.getRebufferBucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void getBitrateBucket_boundsAreInclusive() {
+    assertEquals(0, QoeMetricsCollector.getBitrateBucket(300000));
+    assertEquals(0, QoeMetricsCollector.getBitrateBucket(500000));
+    assertEquals(1, QoeMetricsCollector.getBitrateBucket(500001));
+    assertEquals(3, QoeMetricsCollector.getBitrateBucket(4000000));
+  }
+
+  @Test
+  public void getBitrateBucket_overLastBound_isLastBucket() {
+    assertEquals(QoeMetricsCollector.BITRATE_BUCKET_BOUNDS.length,
+        QoeMetricsCollector.getBitrateBucket(20000000));
+  }
+
+  @Test
+  public void bucketsDontMixUp() {
+    // A 1000ms rebuffer and a 1000bps bitrate land in different buckets of different histograms.
+    assertEquals(2, QoeMetricsCollector.getRebufferBucket(1000));
+    assertEquals(0, QoeMetricsCollector.getBitrateBucket(1000));
+  }
+}
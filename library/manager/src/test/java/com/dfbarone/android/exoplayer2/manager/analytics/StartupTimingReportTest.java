@@ -0,0 +1,76 @@
+package com.dfbarone.android.exoplayer2.manager.analytics;
+
+import com.google.android.exoplayer2.C;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTimingReportTest {
+
+  private static long[] unsetPhases() {
+    long[] phases = new long[StartupTimingReport.PHASE_COUNT];
+    Arrays.fill(phases, C.TIME_UNSET);
+    return phases;
+  }
+
+  @Test
+  public void getPhaseDurationMs_measuresFromPhaseStartToEnd() {
+    long[] starts = unsetPhases();
+    long[] ends = unsetPhases();
+    starts[StartupTimingReport.PHASE_PLAYER_CREATION] = 1010;
+    ends[StartupTimingReport.PHASE_PLAYER_CREATION] = 1050;
+    StartupTimingReport report = new StartupTimingReport(1000, starts, ends);
+
+    assertEquals(40, report.getPhaseDurationMs(StartupTimingReport.PHASE_PLAYER_CREATION));
+  }
+
+  @Test
+  public void getPhaseDurationMs_unfinishedPhase_isUnset() {
+    long[] starts = unsetPhases();
+    starts[StartupTimingReport.PHASE_PREPARE] = 1010;
+    StartupTimingReport report = new StartupTimingReport(1000, starts, unsetPhases());
+
+    assertEquals(C.TIME_UNSET, report.getPhaseDurationMs(StartupTimingReport.PHASE_PREPARE));
+    assertEquals(C.TIME_UNSET,
+        report.getPhaseDurationMs(StartupTimingReport.PHASE_DRM_SESSION_BUILD));
+  }
+
+  @Test
+  public void milestones_areMeasuredFromSessionStart() {
+    long[] ends = unsetPhases();
+    ends[StartupTimingReport.PHASE_FIRST_FRAME_RENDERED] = 1700;
+    ends[StartupTimingReport.PHASE_READY] = 1650;
+    StartupTimingReport report = new StartupTimingReport(1000, unsetPhases(), ends);
+
+    assertEquals(700, report.getTimeToFirstFrameMs());
+    assertEquals(650, report.getTimeToReadyMs());
+    assertEquals(C.TIME_UNSET,
+        report.getTimeSinceStartMs(StartupTimingReport.PHASE_FIRST_MANIFEST_LOAD));
+  }
+
+  @Test
+  public void report_isNotAffectedByLaterChangesToTheTimerArrays() {
+    long[] starts = unsetPhases();
+    long[] ends = unsetPhases();
+    starts[StartupTimingReport.PHASE_PREPARE] = 1000;
+    ends[StartupTimingReport.PHASE_PREPARE] = 1005;
+    StartupTimingReport report = new StartupTimingReport(1000, starts, ends);
+    ends[StartupTimingReport.PHASE_PREPARE] = 2000;
+
+    assertEquals(5, report.getPhaseDurationMs(StartupTimingReport.PHASE_PREPARE));
+  }
+
+  @Test
+  public void toString_marksMissingPhases() {
+    long[] ends = unsetPhases();
+    ends[StartupTimingReport.PHASE_READY] = 1500;
+    String string = new StartupTimingReport(1000, unsetPhases(), ends).toString();
+
+    assertTrue(string, string.contains("ready=500"));
+    assertTrue(string, string.contains("prepare=?"));
+  }
+}
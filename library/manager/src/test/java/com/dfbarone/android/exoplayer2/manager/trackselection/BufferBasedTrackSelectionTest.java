@@ -0,0 +1,79 @@
+package com.dfbarone.android.exoplayer2.manager.trackselection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferBasedTrackSelectionTest {
+
+  private static final double[] BITRATES = new double[] {4000000, 2000000, 1000000, 500000};
+  private static final long MIN_BUFFER_US = 10000000;
+  private static final long TARGET_BUFFER_US = 25000000;
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void computeUtilities_isLogOfBitrateRatioToLowestPlusOne() {
+    double[] utilities = BufferBasedTrackSelection.computeUtilities(BITRATES);
+
+    assertEquals(Math.log(8) + 1, utilities[0], DELTA);
+    assertEquals(Math.log(4) + 1, utilities[1], DELTA);
+    assertEquals(Math.log(2) + 1, utilities[2], DELTA);
+    assertEquals(1, utilities[3], DELTA);
+  }
+
+  @Test
+  public void computeGp() {
+    double highestUtility = Math.log(8) + 1;
+
+    double gp =
+        BufferBasedTrackSelection.computeGp(highestUtility, MIN_BUFFER_US, TARGET_BUFFER_US);
+
+    // (utility - 1) / (target / min - 1)
+    assertEquals(Math.log(8) / 1.5, gp, DELTA);
+  }
+
+  @Test
+  public void computeGp_singleBitrate_isPositive() {
+    assertEquals(1, BufferBasedTrackSelection.computeGp(1, MIN_BUFFER_US, TARGET_BUFFER_US), DELTA);
+  }
+
+  @Test
+  public void bestTrack_atMinimumBuffer_isLowest() {
+    assertEquals(BITRATES.length - 1, getBestIndex(MIN_BUFFER_US));
+  }
+
+  @Test
+  public void bestTrack_atTargetBuffer_isHighest() {
+    assertEquals(0, getBestIndex(TARGET_BUFFER_US));
+  }
+
+  @Test
+  public void bestTrack_betweenMinimumAndTarget_increasesWithBuffer() {
+    int previousIndex = getBestIndex(MIN_BUFFER_US);
+    for (long bufferUs = MIN_BUFFER_US; bufferUs <= TARGET_BUFFER_US; bufferUs += 500000) {
+      int index = getBestIndex(bufferUs);
+      // Larger indices have lower bitrates.
+      assertTrue(index <= previousIndex);
+      previousIndex = index;
+    }
+  }
+
+  private static int getBestIndex(long bufferUs) {
+    double[] utilities = BufferBasedTrackSelection.computeUtilities(BITRATES);
+    double gp = BufferBasedTrackSelection.computeGp(utilities[0], MIN_BUFFER_US, TARGET_BUFFER_US);
+    double v = MIN_BUFFER_US / 1000000d / gp;
+    double bufferS = bufferUs / 1000000d;
+    int bestIndex = 0;
+    double bestScore = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < BITRATES.length; i++) {
+      double score =
+          BufferBasedTrackSelection.computeScore(utilities[i], BITRATES[i], v, gp, bufferS);
+      if (score > bestScore) {
+        bestIndex = i;
+        bestScore = score;
+      }
+    }
+    return bestIndex;
+  }
+}
@@ -0,0 +1,103 @@
+package com.dfbarone.android.exoplayer2.manager.upstream;
+
+import com.google.android.exoplayer2.util.Util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ManifestCacheTest {
+
+  private static final byte[] VOD_MPD =
+      Util.getUtf8Bytes("<?xml version=\"1.0\"?><MPD type=\"static\"></MPD>");
+  private static final byte[] LIVE_MPD =
+      Util.getUtf8Bytes("<?xml version=\"1.0\"?><MPD type=\"dynamic\"></MPD>");
+
+  @Test
+  public void isCacheableManifest_onDemandManifests() {
+    assertTrue(ManifestCache.isCacheableManifest(VOD_MPD));
+    assertTrue(ManifestCache.isCacheableManifest(
+        Util.getUtf8Bytes("#EXTM3U\n#EXT-X-STREAM-INF:BANDWIDTH=1000\nvideo.m3u8\n")));
+    assertTrue(ManifestCache.isCacheableManifest(
+        Util.getUtf8Bytes("#EXTM3U\n#EXTINF:4,\nsegment.ts\n#EXT-X-ENDLIST\n")));
+    assertTrue(ManifestCache.isCacheableManifest(
+        Util.getUtf8Bytes("<SmoothStreamingMedia MajorVersion=\"2\"></SmoothStreamingMedia>")));
+  }
+
+  @Test
+  public void isCacheableManifest_liveManifests() {
+    assertFalse(ManifestCache.isCacheableManifest(LIVE_MPD));
+    assertFalse(ManifestCache.isCacheableManifest(
+        Util.getUtf8Bytes("#EXTM3U\n#EXTINF:4,\nsegment.ts\n")));
+    assertFalse(ManifestCache.isCacheableManifest(
+        Util.getUtf8Bytes("<SmoothStreamingMedia IsLive=\"TRUE\"></SmoothStreamingMedia>")));
+  }
+
+  @Test
+  public void isCacheableManifest_unrecognizedData() {
+    assertFalse(ManifestCache.isCacheableManifest(Util.getUtf8Bytes("{\"not\": \"a manifest\"}")));
+  }
+
+  @Test
+  public void get_afterPut_hits() {
+    ManifestCache cache = new ManifestCache(1024, 1024, 1000);
+    cache.put("a", null, VOD_MPD, 0);
+    ManifestCache.Entry entry = cache.get("a", 500);
+    assertNotNull(entry);
+    assertEquals(VOD_MPD.length, entry.data.length);
+    assertEquals(1, cache.getHitCount());
+    assertEquals(0, cache.getMissCount());
+  }
+
+  @Test
+  public void get_afterTimeToLive_missesAndEvicts() {
+    ManifestCache cache = new ManifestCache(1024, 1024, 1000);
+    cache.put("a", null, VOD_MPD, 0);
+    assertNull(cache.get("a", 1001));
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0, cache.getSizeBytes());
+  }
+
+  @Test
+  public void put_liveManifest_isNotCached() {
+    ManifestCache cache = new ManifestCache(1024, 1024, 1000);
+    cache.put("a", null, LIVE_MPD, 0);
+    assertNull(cache.get("a", 0));
+    assertEquals(0, cache.getSizeBytes());
+  }
+
+  @Test
+  public void put_largerThanMaxEntryBytes_isNotCached() {
+    ManifestCache cache = new ManifestCache(1024, VOD_MPD.length - 1, 1000);
+    cache.put("a", null, VOD_MPD, 0);
+    assertNull(cache.get("a", 0));
+  }
+
+  @Test
+  public void put_overMaxBytes_evictsLeastRecentlyUsed() {
+    ManifestCache cache = new ManifestCache(2 * VOD_MPD.length, 1024, 1000);
+    cache.put("a", null, VOD_MPD, 0);
+    cache.put("b", null, VOD_MPD, 0);
+    // Touch a, so that b is the least recently used entry.
+    assertNotNull(cache.get("a", 0));
+    cache.put("c", null, VOD_MPD, 0);
+    assertNotNull(cache.get("a", 0));
+    assertNull(cache.get("b", 0));
+    assertNotNull(cache.get("c", 0));
+    assertEquals(2 * VOD_MPD.length, cache.getSizeBytes());
+  }
+
+  @Test
+  public void put_sameKey_replacesEntry() {
+    ManifestCache cache = new ManifestCache(1024, 1024, 1000);
+    cache.put("a", null, VOD_MPD, 0);
+    cache.put("a", null, VOD_MPD, 900);
+    assertEquals(VOD_MPD.length, cache.getSizeBytes());
+    // Still fresh, since the second put restarted the time to live.
+    assertNotNull(cache.get("a", 1500));
+  }
+}
@@ -0,0 +1,96 @@
+package com.dfbarone.android.exoplayer2.manager.util;
+
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.drm.DrmSession;
+import com.google.android.exoplayer2.drm.KeysExpiredException;
+import com.google.android.exoplayer2.source.BehindLiveWindowException;
+import com.google.android.exoplayer2.upstream.HttpDataSource;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlayerUtilsTest {
+
+  @Test
+  public void classifyError_behindLiveWindow() {
+    assertEquals(PlayerUtils.ERROR_CATEGORY_BEHIND_LIVE_WINDOW,
+        PlayerUtils.classifyError(ExoPlaybackException.createForSource(
+            new BehindLiveWindowException())));
+  }
+
+  @Test
+  public void classifyError_networkCauses_useMostSpecificCause() {
+    assertEquals(PlayerUtils.ERROR_CATEGORY_DNS,
+        PlayerUtils.classifyError(sourceError(httpError(new UnknownHostException()))));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_CONNECT_TIMEOUT,
+        PlayerUtils.classifyError(sourceError(httpError(new SocketTimeoutException()))));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_CONNECT_TIMEOUT,
+        PlayerUtils.classifyError(sourceError(httpError(new ConnectException()))));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_NETWORK,
+        PlayerUtils.classifyError(sourceError(httpError(new IOException()))));
+  }
+
+  @Test
+  public void classifyError_responseCodes() {
+    assertEquals(PlayerUtils.ERROR_CATEGORY_HTTP_4XX,
+        PlayerUtils.classifyError(sourceError(responseCodeError(404))));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_HTTP_5XX,
+        PlayerUtils.classifyError(sourceError(responseCodeError(503))));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_NETWORK,
+        PlayerUtils.classifyError(sourceError(responseCodeError(302))));
+  }
+
+  @Test
+  public void classifyError_rendererError_isDecoderError() {
+    assertEquals(PlayerUtils.ERROR_CATEGORY_DECODER, PlayerUtils.classifyError(
+        ExoPlaybackException.createForRenderer(new Exception(), /* rendererIndex= */ 0)));
+  }
+
+  @Test
+  public void classifyError_drmErrors_takePrecedence() {
+    ExoPlaybackException rendererError = ExoPlaybackException.createForRenderer(
+        new DrmSession.DrmSessionException(new IllegalStateException()), /* rendererIndex= */ 0);
+    ExoPlaybackException sourceError = sourceError(new IOException(new KeysExpiredException()));
+
+    assertTrue(PlayerUtils.isDrmError(rendererError));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_DRM, PlayerUtils.classifyError(rendererError));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_DRM, PlayerUtils.classifyError(sourceError));
+  }
+
+  @Test
+  public void classifyError_otherErrors() {
+    ExoPlaybackException parserError = sourceError(new IOException("parser error"));
+    ExoPlaybackException wrappedError =
+        sourceError(new IOException(new IllegalStateException("unexpected")));
+
+    assertFalse(PlayerUtils.isDrmError(parserError));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_OTHER, PlayerUtils.classifyError(parserError));
+    assertEquals(PlayerUtils.ERROR_CATEGORY_OTHER, PlayerUtils.classifyError(wrappedError));
+  }
+
+  private static ExoPlaybackException sourceError(IOException cause) {
+    return ExoPlaybackException.createForSource(cause);
+  }
+
+  private static HttpDataSource.HttpDataSourceException httpError(IOException cause) {
+    return new HttpDataSource.HttpDataSourceException(cause, /* dataSpec= */ null,
+        HttpDataSource.HttpDataSourceException.TYPE_OPEN);
+  }
+
+  private static HttpDataSource.InvalidResponseCodeException responseCodeError(int responseCode) {
+    Map<String, List<String>> headerFields = Collections.emptyMap();
+    return new HttpDataSource.InvalidResponseCodeException(responseCode, headerFields,
+        /* dataSpec= */ null);
+  }
+}